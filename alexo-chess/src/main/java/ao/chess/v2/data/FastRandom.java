@@ -0,0 +1,140 @@
+package ao.chess.v2.data;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * xorshift64* generator, one per thread (see local()), for the random
+ *  numbers drawn during search and playouts.  Unlike Math.random() and
+ *  a shared Random there is no compare-and-set on a common seed, so
+ *  threads don't contend for it.
+ *
+ * Each thread's generator is seeded from a master seed, which is taken
+ *  from the clock unless seed(long) is called.  After seed(long), every
+ *  thread reseeds the next time it calls local(): threads that start in
+ *  the same order then draw the same numbers, which makes single
+ *  threaded runs reproducible.
+ *
+ * Not thread safe, don't share an instance between threads.
+ */
+public class FastRandom
+        extends Random
+{
+    //--------------------------------------------------------------------
+    private static final long serialVersionUID = 2009 * 10 * 11;
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private static volatile long       masterSeed = System.nanoTime();
+    private static volatile int        generation = 0;
+    private static final    AtomicLong streams    = new AtomicLong();
+
+    private static final ThreadLocal<FastRandom> LOCAL =
+            new ThreadLocal<FastRandom>() {
+                @Override protected FastRandom initialValue() {
+                    return new FastRandom(nextStreamSeed());
+                }
+            };
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @return generator of the calling thread
+     */
+    public static FastRandom local()
+    {
+        FastRandom rand = LOCAL.get();
+        if (rand.seededIn != generation) {
+            rand.setSeed( nextStreamSeed() );
+        }
+        return rand;
+    }
+
+    /**
+     * Reseeds the generators of all threads, each one the next time its
+     *  thread calls local().
+     *
+     * @param seed master seed
+     */
+    public static synchronized void seed(long seed)
+    {
+        masterSeed = seed;
+        streams.set(0);
+        generation++;
+    }
+
+    private static long nextStreamSeed()
+    {
+        return masterSeed + streams.incrementAndGet() * GOLDEN_GAMMA;
+    }
+
+
+    //--------------------------------------------------------------------
+    // both are set by setSeed, which Random's constructor calls
+    private long x;
+    private int  seededIn;
+
+
+    //--------------------------------------------------------------------
+    public FastRandom(long seed)
+    {
+        super(seed);
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * The seed is scrambled (by the SplitMix64 finalizer), so that
+     *  nearby seeds give unrelated sequences, and never leaves the
+     *  generator in its all zero state.
+     */
+    @Override
+    public void setSeed(long seed)
+    {
+        long z = seed + GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z =  z ^ (z >>> 31);
+        x = (z == 0 ? GOLDEN_GAMMA : z);
+        seededIn = generation;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public long nextLong()
+    {
+        x ^= x >>> 12;
+        x ^= x <<  25;
+        x ^= x >>> 27;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    @Override
+    protected int next(int bits)
+    {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public int nextInt(int n)
+    {
+        if (n <= 0) throw new IllegalArgumentException(
+                "n must be positive: " + n);
+
+        // multiply high, biased by less than n / 2^32
+        return (int) (((nextLong() >>> 32) * n) >>> 32);
+    }
+
+    @Override
+    public double nextDouble()
+    {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public boolean nextBoolean()
+    {
+        return nextLong() < 0;
+    }
+}
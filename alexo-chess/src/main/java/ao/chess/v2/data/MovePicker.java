@@ -2,14 +2,17 @@ package ao.chess.v2.data;
 
 import ao.chess.v2.state.Move;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 /**
  * User: alexo
  * Date: Feb 26, 2009
  * Time: 1:00:52 AM
+ *
+ * Random orders in which to try moves.  Every thread keeps a buffer
+ *  per move count and deals a new permutation into it with its own
+ *  FastRandom each time one is picked, so picks are uniform,
+ *  independent of each other and of other threads, reproducible
+ *  after FastRandom.seed, and free of allocation once a thread has
+ *  seen a move count.
  */
 public class MovePicker
 {
@@ -18,44 +21,45 @@ public class MovePicker
 
 
     //--------------------------------------------------------------------
-    private static final int       picsPerN = 16;
-
-    private static final long[]    lastPick =
-            new long[ Move.MAX_PER_PLY ];
-    private static final int[][][] allPicks =
-            new int [ Move.MAX_PER_PLY ][][];
-
-    static
-    {
-        for (int nMoves = 0; nMoves < Move.MAX_PER_PLY; nMoves++) {
-            int[][] availPicks = new int[ picsPerN ][ nMoves ];
-
-            for (int i = 0; i < picsPerN; i++) {
-                int[] picks = availPicks[ i ];
-                for (int j = 0; j < picks.length; j++) picks[j] = j;
-                shuffle(picks);
-            }
-            allPicks[ nMoves ] = availPicks;
-        }
-    }
+    private static final ThreadLocal<int[][]> PICKS =
+            new ThreadLocal<int[][]>() {
+                @Override protected int[][] initialValue() {
+                    return new int[ Move.MAX_PER_PLY ][];
+                }
+            };
 
 
     //--------------------------------------------------------------------
+    /**
+     * @param nMoves number of moves
+     * @return permutation of 0 until nMoves, only valid until the next
+     *          pick of the same count by the same thread
+     */
     public static int[] pickRandom(int nMoves)
     {
-        return allPicks[ nMoves                               ]
-                       [ (int)(lastPick[nMoves]++ % picsPerN) ];
+        int[][] picks = PICKS.get();
+        int[]   pick  = picks[ nMoves ];
+        if (pick == null) {
+            pick = new int[ nMoves ];
+            picks[ nMoves ] = pick;
+        }
+
+        shuffle(pick, FastRandom.local());
+        return pick;
     }
 
 
     //--------------------------------------------------------------------
-    private static void shuffle(int[] vals)
+    /*
+     * Inside-out Fisher-Yates: overwrites vals with a uniformly random
+     *  permutation of its indexes, whatever it held before.
+     */
+    private static void shuffle(int[] vals, FastRandom rand)
     {
-        List<Integer> l = new ArrayList<Integer>();
-        for (int v : vals) l.add( v );
-        Collections.shuffle(l);
         for (int i = 0; i < vals.length; i++) {
-            vals[ i ] = l.get( i );
+            int j     = rand.nextInt(i + 1);
+            vals[ i ] = vals[ j ];
+            vals[ j ] = i;
         }
     }
 }
@@ -0,0 +1,162 @@
+package ao.chess.v2.engine;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the memory taken by one search tree.
+ *
+ * The tree calls step() once per trajectory, and only measures itself
+ *  when step() says the limit could have been reached.  If it is over
+ *  the limit it then calls startPruning(), prunes its coldest subtrees
+ *  until it is down to target() and reports each with evicted().  In
+ *  either case it reports its size with measured(), along with the
+ *  most it can grow by in one trajectory, which sets how many steps
+ *  can pass before the next measurement.
+ *
+ * Sizes are estimates of the heap taken by the nodes of the tree, not
+ *  measurements of the heap.
+ */
+public class MemoryBudget
+{
+    //--------------------------------------------------------------------
+    // share of the limit to prune down to, so that pruning is rare
+    private static final double TARGET_FRACTION = 0.75;
+
+
+    //--------------------------------------------------------------------
+    public static MemoryBudget ofBytes(long bytes)
+    {
+        return new MemoryBudget(bytes);
+    }
+
+    /**
+     * @param fraction (0, 1] of Runtime.maxMemory()
+     */
+    public static MemoryBudget ofHeapFraction(double fraction)
+    {
+        return new MemoryBudget(
+                (long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+
+    //--------------------------------------------------------------------
+    private final long          limit;
+    private final AtomicLong    stepsToCheck;
+    private final AtomicBoolean measuring;
+
+    private volatile long       used;
+    private final AtomicLong    prunings;
+    private final AtomicLong    evictions;
+    private final AtomicLong    evictedBytes;
+
+
+    //--------------------------------------------------------------------
+    private MemoryBudget(long limitBytes)
+    {
+        limit        = limitBytes;
+        stepsToCheck = new AtomicLong(1);
+        measuring    = new AtomicBoolean(false);
+
+        used         = 0;
+        prunings     = new AtomicLong();
+        evictions    = new AtomicLong();
+        evictedBytes = new AtomicLong();
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @return true if the calling thread should measure the tree and
+     *          prune it if needed, then call measured()
+     */
+    public boolean step()
+    {
+        return stepsToCheck.decrementAndGet() <= 0 &&
+               measuring.compareAndSet(false, true);
+    }
+
+    /**
+     * @param treeBytes size of the tree, after any pruning
+     * @param maxStepBytes most bytes the tree can grow by in one step
+     */
+    public void measured(long treeBytes, long maxStepBytes)
+    {
+        used = treeBytes;
+        stepsToCheck.set(Math.max(1,
+                (limit - treeBytes) / Math.max(1, maxStepBytes)));
+        measuring.set(false);
+    }
+
+
+    //--------------------------------------------------------------------
+    public boolean isExceeded(long treeBytes)
+    {
+        return treeBytes > limit;
+    }
+
+    public void startPruning()
+    {
+        prunings.incrementAndGet();
+    }
+
+    public void evicted(long subtreeBytes)
+    {
+        evictions   .incrementAndGet();
+        evictedBytes.addAndGet(subtreeBytes);
+    }
+
+
+    //--------------------------------------------------------------------
+    public long limit()
+    {
+        return limit;
+    }
+
+    /**
+     * @return size to prune the tree down to once it is over the limit
+     */
+    public long target()
+    {
+        return (long) (limit * TARGET_FRACTION);
+    }
+
+    /**
+     * @return size of the tree when it was last measured
+     */
+    public long used()
+    {
+        return used;
+    }
+
+    /**
+     * @return number of times the tree was pruned
+     */
+    public long prunings()
+    {
+        return prunings.get();
+    }
+
+    /**
+     * @return number of subtrees dropped
+     */
+    public long evictions()
+    {
+        return evictions.get();
+    }
+
+    public long evictedBytes()
+    {
+        return evictedBytes.get();
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override public String toString()
+    {
+        return (used >> 20) + " of " + (limit >> 20) + " MB, " +
+               prunings() + " prunings, " +
+               evictions() + " evictions of " +
+               (evictedBytes() >> 20) + " MB";
+    }
+}
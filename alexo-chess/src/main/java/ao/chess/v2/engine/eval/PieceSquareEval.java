@@ -0,0 +1,152 @@
+package ao.chess.v2.engine.eval;
+
+import ao.chess.v2.data.BitLoc;
+import ao.chess.v2.data.Location;
+import ao.chess.v2.piece.Colour;
+import ao.chess.v2.piece.Figure;
+import ao.chess.v2.state.State;
+
+/**
+ * Static evaluation by material and piece-square tables, read straight
+ *  off the bitboards of a State, so it allocates nothing.  The tables
+ *  are the well known "simplified evaluation function" ones by Tomasz
+ *  Michniewski, with the middle game king table.
+ *
+ * Scores are in centipawns from the point of view of white, and are
+ *  turned into a win probability with the logistic curve used for Elo
+ *  ratings: 400 centipawns ahead is worth 10 to 1 odds.
+ */
+public class PieceSquareEval
+{
+    //--------------------------------------------------------------------
+    private PieceSquareEval() {}
+
+
+    //--------------------------------------------------------------------
+    private static final double CENTIPAWNS_PER_DECADE = 400;
+
+    // by Figure ordinal
+    private static final int[] MATERIAL = {100, 320, 330, 500, 900, 0};
+
+    // by Figure ordinal, then square as seen by white with rank 8 first
+    private static final int[][] SQUARES = {
+        {    0,  0,  0,  0,  0,  0,  0,  0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+             5,  5, 10, 25, 25, 10,  5,  5,
+             0,  0,  0, 20, 20,  0,  0,  0,
+             5, -5,-10,  0,  0,-10, -5,  5,
+             5, 10, 10,-20,-20, 10, 10,  5,
+             0,  0,  0,  0,  0,  0,  0,  0},
+
+        {  -50,-40,-30,-30,-30,-30,-40,-50,
+           -40,-20,  0,  0,  0,  0,-20,-40,
+           -30,  0, 10, 15, 15, 10,  0,-30,
+           -30,  5, 15, 20, 20, 15,  5,-30,
+           -30,  0, 15, 20, 20, 15,  0,-30,
+           -30,  5, 10, 15, 15, 10,  5,-30,
+           -40,-20,  0,  5,  5,  0,-20,-40,
+           -50,-40,-30,-30,-30,-30,-40,-50},
+
+        {  -20,-10,-10,-10,-10,-10,-10,-20,
+           -10,  0,  0,  0,  0,  0,  0,-10,
+           -10,  0,  5, 10, 10,  5,  0,-10,
+           -10,  5,  5, 10, 10,  5,  5,-10,
+           -10,  0, 10, 10, 10, 10,  0,-10,
+           -10, 10, 10, 10, 10, 10, 10,-10,
+           -10,  5,  0,  0,  0,  0,  5,-10,
+           -20,-10,-10,-10,-10,-10,-10,-20},
+
+        {    0,  0,  0,  0,  0,  0,  0,  0,
+             5, 10, 10, 10, 10, 10, 10,  5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+             0,  0,  0,  5,  5,  0,  0,  0},
+
+        {  -20,-10,-10, -5, -5,-10,-10,-20,
+           -10,  0,  0,  0,  0,  0,  0,-10,
+           -10,  0,  5,  5,  5,  5,  0,-10,
+            -5,  0,  5,  5,  5,  5,  0, -5,
+             0,  0,  5,  5,  5,  5,  0, -5,
+           -10,  5,  5,  5,  5,  5,  0,-10,
+           -10,  0,  5,  0,  0,  0,  0,-10,
+           -20,-10,-10, -5, -5,-10,-10,-20},
+
+        {  -30,-40,-40,-50,-50,-40,-40,-30,
+           -30,-40,-40,-50,-50,-40,-40,-30,
+           -30,-40,-40,-50,-50,-40,-40,-30,
+           -30,-40,-40,-50,-50,-40,-40,-30,
+           -20,-30,-30,-40,-40,-30,-30,-20,
+           -10,-20,-20,-20,-20,-20,-20,-10,
+            20, 20,  0,  0,  0,  0, 20, 20,
+            20, 30, 10,  0,  0, 10, 30, 20}
+    };
+
+    // material plus square, by Figure ordinal then square index
+    private static final int[][] WHITE_VALUES = values(Colour.WHITE);
+    private static final int[][] BLACK_VALUES = values(Colour.BLACK);
+
+    private static int[][] values(Colour colour)
+    {
+        int[][] values = new int[ Figure.VALUES.length ][ 64 ];
+        for (int figure = 0; figure < values.length; figure++) {
+            for (int square = 0; square < 64; square++) {
+                int rank = Location.rankIndex(square);
+                int file = Location.fileIndex(square);
+                int seen = (colour == Colour.WHITE)
+                           ? Location.squareIndex(7 - rank, file)
+                           : square;
+                values[ figure ][ square ] =
+                        MATERIAL[ figure ] + SQUARES[ figure ][ seen ];
+            }
+        }
+        return values;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param state position
+     * @return centipawns white is ahead by
+     */
+    public static int score(State state)
+    {
+        int score = 0;
+        for (Figure figure : Figure.VALUES) {
+            score += sum(WHITE_VALUES[ figure.ordinal() ],
+                         state.pieces(Colour.WHITE, figure));
+            score -= sum(BLACK_VALUES[ figure.ordinal() ],
+                         state.pieces(Colour.BLACK, figure));
+        }
+        return score;
+    }
+
+    private static int sum(int[] values, long pieces)
+    {
+        int sum = 0;
+        while (pieces != 0) {
+            sum    += values[ BitLoc.bitBoardToLocation(pieces) ];
+            pieces &= pieces - 1;
+        }
+        return sum;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param state position
+     * @param pov side to score for
+     * @return chance in [0, 1] that pov wins, according to score()
+     */
+    public static double winProbability(State state, Colour pov)
+    {
+        int score = score(state);
+        if (pov != Colour.WHITE) {
+            score = -score;
+        }
+        return 1.0 / (1.0 + Math.pow(10, -score / CENTIPAWNS_PER_DECADE));
+    }
+}
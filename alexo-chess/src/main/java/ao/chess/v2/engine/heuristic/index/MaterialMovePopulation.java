@@ -1,7 +1,7 @@
 package ao.chess.v2.engine.heuristic.index;
 
-import ao.chess.v2.data.MovePicker;
-import ao.chess.v2.state.Move;
+import ao.chess.v2.engine.mcts.rollout.MctsRolloutKernel;
+import ao.chess.v2.state.Outcome;
 import ao.chess.v2.state.State;
 import ao.util.text.AoFormat;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
@@ -60,55 +60,27 @@ public class MaterialMovePopulation
 
     //--------------------------------------------------------------------
     private static boolean randomGame(
-            State fromState, Int2ObjectMap<IntSet> tallyToMoves)
+            State                       fromState,
+            final Int2ObjectMap<IntSet> tallyToMoves)
     {
-        State   simState  = fromState;
-        int     nextCount = 0;
-        int[]   nextMoves = new int[ Move.MAX_PER_PLY ];
-        int[]   moves     = new int[ Move.MAX_PER_PLY ];
-        int     nMoves    = simState.moves(moves);
-        boolean moveAdded = false;
-
-        do
-        {
-            int     move;
-            boolean madeMove = false;
-
-            int beforeMove = simState.tallyAllMaterial();
-            for (int moveIndex = 0; moveIndex < nMoves; moveIndex++) {
-                moveAdded |= autoGet(tallyToMoves, beforeMove)
-                                .add(moves[ moveIndex ]);
-            }
-
-            int[] moveOrder  = MovePicker.pickRandom(nMoves);
-            for (int moveIndex : moveOrder)
-            {
-                move = Move.apply(moves[ moveIndex ], simState);
-
-                // generate opponent moves
-                nextCount = simState.moves(nextMoves);
-
-                if (nextCount < 0) { // if leads to mate
-                    Move.unApply(move, simState);
-                } else {
-                    madeMove = true;
-                    break;
-                }
-            }
-            if (! madeMove) {
-                break;
-            }
-
-            {
-                int[] tempMoves = nextMoves;
-                nextMoves       = moves;
-                moves           = tempMoves;
-                nMoves          = nextCount;
-            }
-        }
-        while (! simState.isDrawnBy50MovesRule());
-
-        return moveAdded;
+        final boolean[] moveAdded = {false};
+
+        MctsRolloutKernel.local().playout(
+                fromState, MctsRolloutKernel.RANDOM,
+                new MctsRolloutKernel.Termination() {
+                    @Override public Outcome outcome(
+                            State state, int[] moves, int nMoves) {
+                        int beforeMove = state.tallyAllMaterial();
+                        for (int i = 0; i < nMoves; i++) {
+                            moveAdded[0] |= autoGet(
+                                    tallyToMoves, beforeMove
+                                ).add(moves[ i ]);
+                        }
+                        return null;
+                    }
+                });
+
+        return moveAdded[0];
     }
 
     private static IntSet autoGet(
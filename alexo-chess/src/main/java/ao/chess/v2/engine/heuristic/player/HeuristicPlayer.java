@@ -1,9 +1,9 @@
 package ao.chess.v2.engine.heuristic.player;
 
+import ao.chess.v2.data.FastRandom;
 import ao.chess.v2.engine.Player;
 import ao.chess.v2.engine.heuristic.MoveHeuristic;
 import ao.chess.v2.state.State;
-import ao.util.math.rand.Rand;
 
 /**
  * User: aostrovsky
@@ -47,7 +47,8 @@ public class HeuristicPlayer implements Player
 //            double value       = Rand.nextDouble( probability );
 //            double value       = moveValues[ i ];
             double value       =
-                    moveValues[ i ] + Rand.nextDouble(0.0001);
+                    moveValues[ i ] +
+                    FastRandom.local().nextDouble() * 0.0001;
 
             if (maxMoveValue < value) {
                 maxMoveValue = value;
@@ -1,5 +1,6 @@
 package ao.chess.v2.engine.mcts;
 
+import ao.chess.v2.engine.mcts.rollout.MctsRolloutKernel;
 import ao.chess.v2.state.State;
 
 /**
@@ -8,6 +9,7 @@ import ao.chess.v2.state.State;
  * Time: 11:22:34 PM
  */
 public interface MctsHeuristic
+        extends MctsRolloutKernel.MovePolicy
 {
     //--------------------------------------------------------------------
     public double firstPlayUrgency(int move);
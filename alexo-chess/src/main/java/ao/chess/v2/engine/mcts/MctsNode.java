@@ -12,6 +12,10 @@ import it.unimi.dsi.fastutil.longs.LongCollection;
 public interface MctsNode<V extends MctsValue<V>>
 {
     //--------------------------------------------------------------------
+    /**
+     * Can be called by several threads on the same tree at once,
+     *  the transposition table then also has to be thread safe.
+     */
     public void runTrajectory(
             State                 fromProtoState,
             MctsValue.Factory<V>  values,
@@ -21,7 +25,29 @@ public interface MctsNode<V extends MctsValue<V>>
 
     public MctsAction<V> bestMove(MctsSelector<V> selector);
 
-    public MctsNode childMatching(int action);
+    public MctsNode<V> childMatching(int action);
+
+    /**
+     * @param stateHash State.transpositionHashCode() of a position
+     * @return child whose position has that hash, or null if there
+     *          is no such child in the tree
+     */
+    public MctsNode<V> childMatchingState(long stateHash);
+
+    /**
+     * @param topTwoVisits filled with the visits of the most and of the
+     *          second most visited child, 0 where there is none
+     * @return action of the most visited child, or -1 if none
+     */
+    public int mostVisited(int[] topTwoVisits);
+
+    /**
+     * @return true if the outcome of the position is proven, so that
+     *          searching it any further can't change the best move
+     */
+    public boolean isSolved();
+
+    public V value();
 
     public void addStates(LongCollection to);
 
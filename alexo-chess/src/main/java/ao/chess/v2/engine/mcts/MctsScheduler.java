@@ -10,6 +10,15 @@ public interface MctsScheduler
     //--------------------------------------------------------------------
     public boolean shouldContinue();
 
+    /**
+     * Optional, lets the scheduler stop early or search for longer
+     *  depending on how the visits of the root are spread.  Called once,
+     *  before any call to shouldContinue.
+     *
+     * @param root tree searched while shouldContinue
+     */
+    public void watch(MctsNode<?> root);
+
 
     //--------------------------------------------------------------------
     public static interface Factory
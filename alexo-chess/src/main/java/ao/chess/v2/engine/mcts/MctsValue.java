@@ -6,6 +6,10 @@ import ao.chess.v2.engine.mcts.value.Ucb1Value;
  * User: alex
  * Date: 27-Sep-2009
  * Time: 10:52:59 PM
+ *
+ * Values are shared by all threads searching the same tree: every
+ *  method can be called concurrently, updates are atomic, and the
+ *  visits and reward sum are always read as a consistent pair.
  */
 public interface MctsValue<T extends MctsValue<T>>
 {
@@ -15,13 +19,66 @@ public interface MctsValue<T extends MctsValue<T>>
      */
     public void   update(double winRate);
 
+    /**
+     * Counts a visit whose playout has not finished yet as a loss,
+     *  steering other threads towards other paths until the outcome
+     *  is known and resolveVirtualLoss is called.
+     *
+     * @return number of visits before this one
+     */
+    public int    addVirtualLoss();
+
+    /**
+     * Replaces a loss added by addVirtualLoss with the actual outcome.
+     *
+     * @param winRate [0, 1]
+     */
+    public void   resolveVirtualLoss(double winRate);
+
+    /**
+     * @return number of visits, including virtual ones
+     */
+    public int    visits();
+
+    /**
+     * @return visits and reward sum, see PackedStats, read together
+     */
+    public long   packedStats();
+
+    /**
+     * Adds the visits and rewards of another value to this one.
+     *
+     * @param other value from a separate search of the same position
+     */
+    public void   merge(T other);
+
+    /**
+     * Bandit bound to maximize when choosing among the children of a
+     *  node.  The log term of the parent is passed in so that it is
+     *  worked out once for all of the children.
+     *
+     * @param transpositionStats visits and reward sum of the same
+     *          position in the transposition table, see PackedStats,
+     *          0 if it isn't tracked
+     * @param parentVisits visits of the parent
+     * @param logParentVisits UcbMath.log(parentVisits)
+     * @return bound to maximize
+     */
     public double confidenceBound(
-            T transpositionValue,
-            T withRespectToParent);
+            long   transpositionStats,
+            int    parentVisits,
+            double logParentVisits);
 
 
     //--------------------------------------------------------------------
     public static interface Factory<T extends MctsValue<T>> {
         public T newValue();
+
+        /**
+         * @param visits number of visits
+         * @param sum sum of their rewards, each in [0, 1]
+         * @return value with the given statistics
+         */
+        public T newValue(int visits, double sum);
     }
 }
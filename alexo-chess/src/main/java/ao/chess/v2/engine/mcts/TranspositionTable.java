@@ -21,10 +21,36 @@ public interface TranspositionTable<T extends MctsValue<T>>
     public T getOrNull(long stateHash);
 
 
+    //--------------------------------------------------------------------
+    /**
+     * Like getOrNull, but without allocating a value, so that it can be
+     *  called for every child on every descent.
+     *
+     * @return visits and reward sum, see PackedStats, 0 if the position
+     *          is not in the table
+     */
+    public long packed(long stateHash);
+
+
     //--------------------------------------------------------------------
     public boolean contains(long stateHash);
 
 
+    //--------------------------------------------------------------------
+    /**
+     * @return false if nothing is ever stored, so that get always
+     *          returns null and looking positions up can be skipped
+     */
+    public boolean isTracking();
+
+
     //--------------------------------------------------------------------
     public void retain(LongCollection stateHashes);
+
+    /**
+     * Starts a new generation, called once per move: entries that are
+     *  not used during it become the first to be dropped.  Unlike
+     *  retain, takes constant time.
+     */
+    public void nextEpoch();
 }
@@ -1,5 +1,6 @@
 package ao.chess.v2.engine.mcts.heuristic;
 
+import ao.chess.v2.data.FastRandom;
 import ao.chess.v2.data.MovePicker;
 import ao.chess.v2.engine.mcts.MctsHeuristic;
 import ao.chess.v2.state.Move;
@@ -16,8 +17,8 @@ public class MctsCaptureHeuristic
     //--------------------------------------------------------------------
     @Override public double firstPlayUrgency(int move) {
         return Move.isCapture(move)
-                ? 1.5 + Math.random() / 10000
-                : 1.0 + Math.random() / 10000;
+                ? 1.5 + FastRandom.local().nextDouble() / 10000
+                : 1.0 + FastRandom.local().nextDouble() / 10000;
     }
 
 
@@ -1,5 +1,6 @@
 package ao.chess.v2.engine.mcts.heuristic;
 
+import ao.chess.v2.data.FastRandom;
 import ao.chess.v2.data.MovePicker;
 import ao.chess.v2.engine.mcts.MctsHeuristic;
 import ao.chess.v2.state.State;
@@ -15,7 +16,7 @@ public class MctsFpuHeuristic
     //--------------------------------------------------------------------
     @Override
     public double firstPlayUrgency(int move) {
-        return 1.0 + (1.0 - Math.random()) / 10000;
+        return 1.0 + (1.0 - FastRandom.local().nextDouble()) / 10000;
     }
 
 
@@ -1,5 +1,6 @@
 package ao.chess.v2.engine.mcts.heuristic;
 
+import ao.chess.v2.data.FastRandom;
 import ao.chess.v2.data.MovePicker;
 import ao.chess.v2.engine.mcts.MctsHeuristic;
 import ao.chess.v2.state.State;
@@ -23,7 +24,7 @@ public class MctsHeuristicImpl
     //--------------------------------------------------------------------
     @Override
     public double firstPlayUrgency(int move) {
-        return 1000 + Math.random();
+        return 1000 + FastRandom.local().nextDouble();
 //        return 1.0
     }
 
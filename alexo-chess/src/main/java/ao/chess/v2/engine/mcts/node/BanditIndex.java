@@ -0,0 +1,237 @@
+package ao.chess.v2.engine.mcts.node;
+
+import java.util.Arrays;
+
+/**
+ * Children of a node kept in order of an upper bound on their bandit
+ *  value, so that selection can stop as soon as none of the remaining
+ *  children can beat the best one found so far.
+ *
+ * The bound relies on every MctsValue bound being the mean of the child,
+ *  at least 0, plus an exploration term that grows with the log of the
+ *  parent's visits, but no faster than in proportion to it (as with
+ *  the square root in UCB1).  So a child that scored b when the log was
+ *  l can score at most b / l * l' once it is l' >= l, as long as its
+ *  own statistics haven't changed.  The key of a child is b / l, which
+ *  ranks children the same way whatever l' is.  A child whose
+ *  statistics changed is marked stale, with an infinite key, and is
+ *  scored again by the next selection.
+ *
+ * Unvisited children are scored by first play urgency, which has no
+ *  such bound, they are kept in a separate list that is scanned every
+ *  time.  Children that are proven are dropped altogether.
+ *
+ * Not thread safe, the node it belongs to locks it.
+ */
+final class BanditIndex
+{
+    //--------------------------------------------------------------------
+    private static final int OUTSIDE = -1;
+
+
+    //--------------------------------------------------------------------
+    // heap of child indexes, greatest key first
+    private final int[]    heap;
+    private final double[] keys;
+    private final int[]    slots;
+    private       int      size;
+
+    private final int[]    unvisited;
+    private       int      unvisitedCount;
+
+    // children taken off the heap during a selection, to be put back
+    private final int[]    taken;
+    private final double[] takenKeys;
+    private       int      takenCount;
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param kidCount number of children of the node
+     */
+    public BanditIndex(int kidCount)
+    {
+        heap      = new int   [ kidCount ];
+        keys      = new double[ kidCount ];
+        slots     = new int   [ kidCount ];
+        unvisited = new int   [ kidCount ];
+        taken     = new int   [ kidCount ];
+        takenKeys = new double[ kidCount ];
+
+        Arrays.fill(slots, OUTSIDE);
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param kid visited child that isn't in the heap or taken
+     */
+    public void add(int kid)
+    {
+        push(kid, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param kid child to score again, if it is in the heap
+     */
+    public void stale(int kid)
+    {
+        int slot = slots[ kid ];
+        if (slot == OUTSIDE) return;
+
+        keys[ kid ] = Double.POSITIVE_INFINITY;
+        siftUp( slot );
+    }
+
+    /**
+     * @param kid child that isn't in the heap, to be scanned each time
+     */
+    public void addUnvisited(int kid)
+    {
+        unvisited[ unvisitedCount++ ] = kid;
+    }
+
+
+    //--------------------------------------------------------------------
+    public int unvisitedCount()
+    {
+        return unvisitedCount;
+    }
+
+    public int unvisited(int i)
+    {
+        return unvisited[ i ];
+    }
+
+    /**
+     * Takes the i'th child off the unvisited list, the last one takes
+     *  its place, so remove while counting down.
+     */
+    public void removeUnvisited(int i)
+    {
+        unvisited[ i ] = unvisited[ --unvisitedCount ];
+    }
+
+
+    //--------------------------------------------------------------------
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * @return greatest key in the heap, it must not be empty
+     */
+    public double topKey()
+    {
+        return keys[ heap[0] ];
+    }
+
+    /**
+     * Takes the child with the greatest key off the heap, it is left
+     *  out for good unless it is put back.
+     *
+     * @return child with the greatest key
+     */
+    public int take()
+    {
+        int kid = heap[ 0 ];
+        remove(0);
+        return kid;
+    }
+
+    /**
+     * @param kid child returned by take, to go back on the heap once
+     *          the selection is over
+     * @param key its new key
+     */
+    public void putBack(int kid, double key)
+    {
+        taken    [ takenCount   ] = kid;
+        takenKeys[ takenCount++ ] = key;
+    }
+
+    /**
+     * Puts back every child that was taken, ready for the next
+     *  selection.
+     */
+    public void restore()
+    {
+        for (int i = 0; i < takenCount; i++) {
+            push(taken[i], takenKeys[i]);
+        }
+        takenCount = 0;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @return approximate size in memory
+     */
+    public long bytes()
+    {
+        return 48 + 6 * 16 + (4 * 4 + 8 * 2) * heap.length;
+    }
+
+
+    //--------------------------------------------------------------------
+    private void push(int kid, double key)
+    {
+        keys [ kid  ] = key;
+        heap [ size ] = kid;
+        slots[ kid  ] = size;
+        siftUp( size++ );
+    }
+
+    private void remove(int slot)
+    {
+        int kid = heap[ slot ];
+        slots[ kid ] = OUTSIDE;
+
+        if (slot == --size) return;
+        int last = heap[ size ];
+        heap [ slot ] = last;
+        slots[ last ] = slot;
+        siftDown( slot );
+    }
+
+    private void siftUp(int slot)
+    {
+        int    kid = heap[ slot ];
+        double key = keys[ kid  ];
+        while (slot > 0) {
+            int parentSlot = (slot - 1) >>> 1;
+            int parent     = heap[ parentSlot ];
+            if (keys[ parent ] >= key) break;
+
+            heap [ slot   ] = parent;
+            slots[ parent ] = slot;
+            slot            = parentSlot;
+        }
+        heap [ slot ] = kid;
+        slots[ kid  ] = slot;
+    }
+
+    private void siftDown(int slot)
+    {
+        int    kid = heap[ slot ];
+        double key = keys[ kid  ];
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= size) break;
+            if (child + 1 < size &&
+                    keys[ heap[child + 1] ] > keys[ heap[child] ]) {
+                child++;
+            }
+
+            int greater = heap[ child ];
+            if (keys[ greater ] <= key) break;
+
+            heap [ slot    ] = greater;
+            slots[ greater ] = slot;
+            slot             = child;
+        }
+        heap [ slot ] = kid;
+        slots[ kid  ] = slot;
+    }
+}
@@ -0,0 +1,669 @@
+package ao.chess.v2.engine.mcts.node;
+
+import ao.chess.v2.engine.mcts.*;
+import ao.chess.v2.engine.mcts.message.MctsAction;
+import ao.chess.v2.engine.mcts.value.PackedStats;
+import ao.chess.v2.engine.mcts.value.Ucb1TunedValue;
+import ao.chess.v2.engine.mcts.value.Ucb1Value;
+import ao.chess.v2.engine.mcts.value.UcbMath;
+import ao.chess.v2.state.Move;
+import ao.chess.v2.state.State;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tree kept in a fixed size arena of primitive arrays instead of node
+ *  objects: every node is an int index with its hash, visits and
+ *  rewards stored inline, and the moves to its children are consecutive edges
+ *  that hold the index of the child once it is created.  A node takes
+ *  NODE_BYTES and an edge EDGE_BYTES, where MctsNodeImpl takes about
+ *  120 bytes per node in its objects and 8 per move, and searching
+ *  allocates nothing after the first trajectory of every thread.
+ *
+ * Instances are handles to a node of the arena, only the root and the
+ *  nodes returned by bestMove and childMatching get one.  Values
+ *  returned by value() are snapshots built by the MctsValue.Factory.
+ *
+ * Like MctsNodeImpl, any number of threads can run trajectories
+ *  through the same tree at once.  Once the arena is full the tree
+ *  stops growing and trajectories end in playouts from its leaves.
+ *  When a subtree is reused for the next move, through
+ *  childMatchingState, the arena is compacted down to that subtree,
+ *  so the rest of the tree is reclaimed.
+ */
+public class MctsArenaNode<V extends MctsValue<V>>
+        implements MctsNode<V>
+{
+    //--------------------------------------------------------------------
+    public static class Factory<V extends MctsValue<V>>
+            implements MctsNode.Factory<V> {
+        private final Bound bound;
+        private final int   nodeCapacity;
+
+        /**
+         * @param bound bandit bound of visited children
+         * @param megabytes size of the arena of every new tree, split
+         *          between nodes and EDGES_PER_NODE edges for each
+         */
+        public Factory(Bound bound, int megabytes) {
+            this.bound   = bound;
+            nodeCapacity = (int) Math.min(
+                    Integer.MAX_VALUE / EDGES_PER_NODE,
+                    megabytes * (1L << 20) /
+                            (NODE_BYTES + EDGES_PER_NODE * EDGE_BYTES));
+        }
+
+        @Override
+        public MctsArenaNode<V> newNode(
+                State                state,
+                MctsValue.Factory<V> valueFactory)
+        {
+            return new MctsArenaNode<V>(
+                    new Arena<V>(nodeCapacity,
+                                 nodeCapacity * EDGES_PER_NODE,
+                                 state.transpositionHashCode(),
+                                 bound, valueFactory),
+                    Arena.ROOT);
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Bandit bound of a visited node, computed from its inline stats.
+     */
+    public static interface Bound
+    {
+        /**
+         * @param stats visits and sum, see PackedStats
+         * @param sumSquares fixed point sum of squared rewards
+         * @param logParentVisits log of the visits of the parent,
+         *          see UcbMath
+         * @return bound to maximize
+         */
+        public double confidenceBound(
+                long stats, long sumSquares, double logParentVisits);
+    }
+
+    public static final Bound UCB1 = new Bound() {
+        @Override public double confidenceBound(
+                long stats, long sumSquares, double logParentVisits) {
+            return Ucb1Value.confidenceBound(stats, logParentVisits);
+        }
+    };
+
+    public static final Bound UCB1_TUNED = new Bound() {
+        @Override public double confidenceBound(
+                long stats, long sumSquares, double logParentVisits) {
+            return Ucb1TunedValue.confidenceBound(
+                    stats, sumSquares, logParentVisits);
+        }
+    };
+
+
+    //--------------------------------------------------------------------
+    // hash, stats, sum of squares, first edge, edge count
+    public static final int NODE_BYTES     = 8 + 8 + 8 + 4 + 1;
+
+    // move and child
+    public static final int EDGE_BYTES     = 8;
+
+    // most nodes of a tree are never expanded, so this is well below
+    //  the average number of legal moves
+    public static final int EDGES_PER_NODE = 16;
+
+
+    //--------------------------------------------------------------------
+    private static final ThreadLocal<Trajectory> TRAJECTORY =
+            new ThreadLocal<Trajectory>() {
+                @Override protected Trajectory initialValue() {
+                    return new Trajectory();
+                }
+            };
+
+
+    //--------------------------------------------------------------------
+    private final Arena<V> arena;
+    private final int      index;
+
+
+    //--------------------------------------------------------------------
+    private MctsArenaNode(Arena<V> arena, int index) {
+        this.arena = arena;
+        this.index = index;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public void runTrajectory(
+            State                 fromProtoState,
+            MctsValue.Factory<V>  values,
+            MctsRollout           mcRollout,
+            TranspositionTable<V> transpositionTable,
+            MctsHeuristic         heuristic)
+    {
+        Trajectory path   = TRAJECTORY.get();
+        State      cursor = path.start(fromProtoState);
+
+        // descend until reaching a node no other playout went through
+        int     node    = index;
+        boolean visited = (arena.addVirtualLoss(node) != 0);
+        path.add(node);
+        while (visited)
+        {
+            node = arena.descendByBandit(
+                    node, cursor, heuristic, path.moves);
+            if (node == -1) break;
+
+            visited = (arena.addVirtualLoss(node) != 0);
+            path.add(node);
+        }
+
+        double reward = 1.0 - mcRollout.monteCarloPlayout(
+                cursor, heuristic);
+        for (int i = path.size - 1; i >= 0; i--)
+        {
+            int pathNode = path.nodes[i];
+            arena.resolveVirtualLoss(pathNode, reward);
+            transpositionTable.update(arena.hash(pathNode), reward);
+
+            reward = 1.0 - reward;
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public MctsAction<V> bestMove(MctsSelector<V> selector) {
+        int first = arena.firstEdge(index);
+        if (first == Arena.LEAF) return null;
+
+        int bestAct = -1;
+        int bestKid = -1;
+        V   bestVal = null;
+        int last    = first + arena.edgeCount(index);
+        for (int edge = first; edge < last; edge++) {
+            int kid = arena.kid(edge);
+            if (kid == -1) continue;
+
+            V kidVal = arena.value(kid);
+            if (bestVal == null || selector.compare(bestVal, kidVal) < 0) {
+                bestAct = arena.move(edge);
+                bestKid = kid;
+                bestVal = kidVal;
+            }
+        }
+        return new MctsAction<V>(bestAct,
+                (bestKid == -1 ? null : new MctsArenaNode<V>(arena, bestKid)));
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public MctsNode<V> childMatching(int action) {
+        int first = arena.firstEdge(index);
+        int last  = first + arena.edgeCount(index);
+        for (int edge = first; edge < last; edge++) {
+            if (arena.move(edge) == action) {
+                int kid = arena.kid(edge);
+                return (kid == -1)
+                       ? null : new MctsArenaNode<V>(arena, kid);
+            }
+        }
+        return null;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Hands the tree over to the matching child: the arena is compacted
+     *  down to its subtree, which becomes the root.  This handle and any
+     *  other one to the tree are no longer valid after that, and no
+     *  trajectories may be running.
+     */
+    @Override
+    public MctsNode<V> childMatchingState(long stateHash) {
+        int first = arena.firstEdge(index);
+        int last  = first + arena.edgeCount(index);
+        for (int edge = first; edge < last; edge++) {
+            int kid = arena.kid(edge);
+            if (kid != -1 && arena.hash(kid) == stateHash) {
+                arena.compactTo(kid);
+                return new MctsArenaNode<V>(arena, Arena.ROOT);
+            }
+        }
+        return null;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public int mostVisited(int[] topTwoVisits) {
+        topTwoVisits[0] = 0;
+        topTwoVisits[1] = 0;
+
+        int bestAct = -1;
+        int first   = arena.firstEdge(index);
+        int last    = first + arena.edgeCount(index);
+        for (int edge = first; edge < last; edge++) {
+            int kid = arena.kid(edge);
+            if (kid == -1) continue;
+
+            int visits = arena.visits(kid);
+            if (bestAct == -1 || visits > topTwoVisits[0]) {
+                topTwoVisits[1] = topTwoVisits[0];
+                topTwoVisits[0] = visits;
+                bestAct         = arena.move(edge);
+            } else if (visits > topTwoVisits[1]) {
+                topTwoVisits[1] = visits;
+            }
+        }
+        return bestAct;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public boolean isSolved() {
+        return false;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public V value() {
+        return arena.value(index);
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public void addStates(LongCollection to) {}
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public String toString() {
+        return arena.toString() + " | " + value();
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Per thread path of the current trajectory, grown as needed.
+     */
+    private static class Trajectory
+    {
+        private final State cursor = State.initial();
+        private final int[] moves  = new int[ Move.MAX_PER_PLY ];
+        private       int[] nodes  = new int[ 64 ];
+        private       int   size;
+
+        public State start(State from) {
+            cursor.copyFrom( from );
+            size = 0;
+            return cursor;
+        }
+
+        public void add(int node) {
+            if (size == nodes.length) {
+                int[] grownNodes = new int[ size * 2 ];
+                System.arraycopy(nodes, 0, grownNodes, 0, size);
+                nodes = grownNodes;
+            }
+            nodes[ size++ ] = node;
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * The nodes of one tree as parallel arrays indexed by node, and the
+     *  edges to their children as one array of longs, each holding the
+     *  move in the high half and the index of the child in the low one.
+     *
+     * The edges of a node are created all at once when it is first
+     *  descended through: they and their count are written, then the
+     *  index of the first one is published with a volatile write.  The
+     *  child of an edge is only created once it is selected.
+     */
+    private static class Arena<V extends MctsValue<V>>
+    {
+        //----------------------------------------------------------------
+        public static final int ROOT       = 0;
+
+        // edges not created yet, no edge starts at 0 since it's reserved
+        public static final int UNEXPANDED = 0;
+
+        // another thread is creating the edges
+        public static final int EXPANDING  = -1;
+
+        // no legal moves
+        public static final int LEAF       = -2;
+
+        // child of an edge that was not selected yet, the root is never
+        //  a child
+        private static final int NO_KID    = ROOT;
+
+
+        //----------------------------------------------------------------
+        private final Bound                bound;
+        private final MctsValue.Factory<V> values;
+        private final int                  nodeCapacity;
+        private final int                  edgeCapacity;
+        private final AtomicInteger        nodeCount;
+        private final AtomicInteger        edgeCount;
+
+        private final long[]               hashes;
+        private final AtomicLongArray      stats;
+        private final AtomicLongArray      sumSquares;
+        private final AtomicIntegerArray   firstEdges;
+        private final byte[]               edgeCounts;
+        private final AtomicLongArray      edges;
+
+
+        //----------------------------------------------------------------
+        public Arena(
+                int                  nodeCapacity,
+                int                  edgeCapacity,
+                long                 rootHash,
+                Bound                bound,
+                MctsValue.Factory<V> values)
+        {
+            this.bound        = bound;
+            this.values       = values;
+            this.nodeCapacity = nodeCapacity;
+            this.edgeCapacity = edgeCapacity;
+            nodeCount         = new AtomicInteger(ROOT + 1);
+            edgeCount         = new AtomicInteger(UNEXPANDED + 1);
+
+            hashes     = new long              [nodeCapacity];
+            stats      = new AtomicLongArray   (nodeCapacity);
+            sumSquares = new AtomicLongArray   (nodeCapacity);
+            firstEdges = new AtomicIntegerArray(nodeCapacity);
+            edgeCounts = new byte              [nodeCapacity];
+            edges      = new AtomicLongArray   (edgeCapacity);
+
+            hashes[ ROOT ] = rootHash;
+        }
+
+
+        //----------------------------------------------------------------
+        public int addVirtualLoss(int node) {
+            return PackedStats.visits(
+                    stats.getAndAdd(node, PackedStats.VISIT));
+        }
+
+        public void resolveVirtualLoss(int node, double winRate) {
+            stats     .addAndGet(node, PackedStats.reward(winRate));
+            sumSquares.addAndGet(node, PackedStats.reward(winRate * winRate));
+        }
+
+        public long hash(int node) {
+            return hashes[ node ];
+        }
+
+        public int visits(int node) {
+            return PackedStats.visits(stats.get(node));
+        }
+
+        public V value(int node) {
+            long packed = stats.get(node);
+            return values.newValue(
+                    PackedStats.visits(packed),
+                    PackedStats.sum(packed));
+        }
+
+
+        //----------------------------------------------------------------
+        /**
+         * @return index of the first edge, or one of the
+         *          UNEXPANDED / EXPANDING / LEAF markers
+         */
+        public int firstEdge(int node) {
+            return firstEdges.get(node);
+        }
+
+        public int edgeCount(int node) {
+            return (firstEdges.get(node) > 0)
+                   ? edgeCounts[ node ] & 0xFF
+                   : 0;
+        }
+
+        public int move(int edge) {
+            return (int) (edges.get(edge) >>> 32);
+        }
+
+        /**
+         * @return child node of the edge, or -1 if not created yet
+         */
+        public int kid(int edge) {
+            int kid = (int) edges.get(edge);
+            return (kid == NO_KID ? -1 : kid);
+        }
+
+
+        //----------------------------------------------------------------
+        /**
+         * @return child the cursor was moved to, or -1 if the node is
+         *          a leaf of the tree
+         */
+        public int descendByBandit(
+                int           node,
+                State         cursor,
+                MctsHeuristic heuristic,
+                int[]         moveBuffer)
+        {
+            int first = firstEdges.get(node);
+            if (first == UNEXPANDED) {
+                first = expand(node, cursor, moveBuffer);
+            }
+            if (first <= 0) return -1;
+
+            int    last         = first + (edgeCounts[ node ] & 0xFF);
+            double parentLog    = UcbMath.log(
+                    PackedStats.visits(stats.get(node)));
+            double greatest     = Double.NEGATIVE_INFINITY;
+            int    greatestEdge = -1;
+            for (int edge = first; edge < last; edge++) {
+                long packedEdge = edges.get(edge);
+                int  kid        = (int) packedEdge;
+                long kidStats   = (kid == NO_KID ? 0 : stats.get(kid));
+
+                double banditValue =
+                        (PackedStats.visits(kidStats) == 0)
+                        ? heuristic.firstPlayUrgency(
+                                (int) (packedEdge >>> 32))
+                        : bound.confidenceBound(kidStats,
+                                sumSquares.get(kid), parentLog);
+
+                if (banditValue > greatest) {
+                    greatest     = banditValue;
+                    greatestEdge = edge;
+                }
+            }
+            if (greatestEdge == -1) return -1;
+
+            int move = Move.apply(move(greatestEdge), cursor);
+            int kid  = kidOf(greatestEdge, cursor);
+            if (kid == -1) {
+                Move.unApply(move, cursor);
+            }
+            return kid;
+        }
+
+        /**
+         * @return child of the edge, created if needed, or -1 if there
+         *          is no room left for it
+         */
+        private int kidOf(int edge, State kidState)
+        {
+            long packedEdge = edges.get(edge);
+            int  kid        = (int) packedEdge;
+            if (kid != NO_KID) return kid;
+
+            int created = reserve(nodeCount, 1, nodeCapacity);
+            if (created == -1) return -1;
+            hashes[ created ] = kidState.transpositionHashCode();
+
+            // if another thread gets there first, go with its node
+            //  (the one created here is left unused)
+            edges.compareAndSet(edge, packedEdge, packedEdge | created);
+            return (int) edges.get(edge);
+        }
+
+
+        //----------------------------------------------------------------
+        private int expand(int node, State cursor, int[] moveBuffer)
+        {
+            if (! firstEdges.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+                return EXPANDING;
+            }
+
+            int nMoves = cursor.legalMoves(moveBuffer);
+            if (nMoves <= 0) {
+                firstEdges.set(node, LEAF);
+                return LEAF;
+            }
+
+            int first = reserve(edgeCount, nMoves, edgeCapacity);
+            if (first == -1) {
+                firstEdges.set(node, UNEXPANDED);
+                return UNEXPANDED;
+            }
+
+            for (int i = 0; i < nMoves; i++) {
+                edges.set(first + i, (long) moveBuffer[ i ] << 32);
+            }
+            edgeCounts[ node ] = (byte) nMoves;
+            firstEdges.set(node, first);
+            return first;
+        }
+
+        private static int reserve(
+                AtomicInteger count, int toAdd, int capacity)
+        {
+            while (true) {
+                int first = count.get();
+                if (first + toAdd > capacity) return -1;
+
+                if (count.compareAndSet(first, first + toAdd)) {
+                    return first;
+                }
+            }
+        }
+
+
+        //----------------------------------------------------------------
+        /**
+         * Keeps only the subtree of the given node, which becomes the
+         *  root.  Children are always created after their parent, and
+         *  edges after their node, so keeping nodes and edges in the
+         *  order they were created only ever moves them down: they are
+         *  slid into place in one pass, like a mark-compact collector.
+         *
+         * No trajectories may be running.
+         *
+         * @param newRoot node whose subtree to keep
+         */
+        public void compactTo(int newRoot)
+        {
+            int nodesBefore = nodeCount.get();
+
+            // mark the subtree, -1 for nodes that are let go of
+            int[] renumber = new int[ nodesBefore ];
+            Arrays.fill(renumber, -1);
+
+            int[] stack    = new int[ nodesBefore ];
+            int   depth    = 0;
+            int   expanded = 0;
+            renumber[ newRoot ] = 0;
+            stack[ depth++ ]    = newRoot;
+            while (depth > 0) {
+                int node  = stack[ --depth ];
+                int first = firstEdges.get(node);
+                if (first <= 0) continue;
+
+                expanded++;
+                int last = first + (edgeCounts[ node ] & 0xFF);
+                for (int edge = first; edge < last; edge++) {
+                    int kid = (int) edges.get(edge);
+                    if (kid != NO_KID && renumber[ kid ] == -1) {
+                        renumber[ kid ]  = 0;
+                        stack[ depth++ ] = kid;
+                    }
+                }
+            }
+
+            // every node of the subtree was created after its root
+            int nodesAfter = 0;
+            for (int node = newRoot; node < nodesBefore; node++) {
+                if (renumber[ node ] != -1) {
+                    renumber[ node ] = nodesAfter++;
+                }
+            }
+
+            // edges of the subtree in the order they were created
+            long[] blocks = new long[ expanded ];
+            int    nBlocks = 0;
+            for (int node = newRoot; node < nodesBefore; node++) {
+                int first = firstEdges.get(node);
+                if (renumber[ node ] != -1 && first > 0) {
+                    blocks[ nBlocks++ ] = ((long) first << 32) | node;
+                }
+            }
+            Arrays.sort(blocks, 0, nBlocks);
+
+            int edgesAfter = UNEXPANDED + 1;
+            for (int b = 0; b < nBlocks; b++) {
+                int node  = (int)  blocks[ b ];
+                int first = (int) (blocks[ b ] >>> 32);
+                int count = edgeCounts[ node ] & 0xFF;
+                for (int i = 0; i < count; i++) {
+                    long packedEdge = edges.get(first + i);
+                    int  kid        = (int) packedEdge;
+                    edges.set(edgesAfter + i,
+                            (packedEdge & 0xFFFFFFFF00000000L) |
+                            (kid == NO_KID ? NO_KID : renumber[ kid ]));
+                }
+                firstEdges.set(node, edgesAfter);
+                edgesAfter += count;
+            }
+
+            for (int node = newRoot; node < nodesBefore; node++) {
+                int to = renumber[ node ];
+                if (to == -1) continue;
+
+                hashes    [ to ] = hashes[ node ];
+                stats     .set(to, stats     .get(node));
+                sumSquares.set(to, sumSquares.get(node));
+                firstEdges.set(to, firstEdges.get(node));
+                edgeCounts[ to ] = edgeCounts[ node ];
+            }
+
+            // nodes are created with empty stats and no edges
+            for (int node = nodesAfter; node < nodesBefore; node++) {
+                stats     .set(node, 0);
+                sumSquares.set(node, 0);
+                firstEdges.set(node, UNEXPANDED);
+                edgeCounts[ node ] = 0;
+            }
+
+            nodeCount.set(nodesAfter);
+            edgeCount.set(edgesAfter);
+        }
+
+
+        //----------------------------------------------------------------
+        @Override
+        public String toString() {
+            return nodeCount.get() + " of " + nodeCapacity + " nodes, " +
+                   edgeCount.get() + " of " + edgeCapacity + " edges";
+        }
+    }
+}
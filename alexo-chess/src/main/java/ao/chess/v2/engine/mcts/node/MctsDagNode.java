@@ -0,0 +1,509 @@
+package ao.chess.v2.engine.mcts.node;
+
+import ao.chess.v2.engine.mcts.*;
+import ao.chess.v2.engine.mcts.message.MctsAction;
+import ao.chess.v2.engine.mcts.value.UcbMath;
+import ao.chess.v2.state.Move;
+import ao.chess.v2.state.State;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Search graph where transpositions share a node: every move order that
+ *  leads to the same position, by State.transpositionHashCode(), ends
+ *  up at one node, looked up in a table shared by the whole graph.
+ *
+ * Statistics are kept twice.  Each node has a value with every playout
+ *  that went through its position, by whatever path, and each edge
+ *  (a move of a node) has a value with only the playouts that took that
+ *  move from that node.  Children are chosen by the bound of the edge,
+ *  with the stats of the child node passed in as its transposition
+ *  stats, so values that make use of them (like Ucb1Value2) learn from
+ *  every path to the position, while exploration is still counted per
+ *  edge.  The best move and visit counts are those of the child nodes.
+ *  The transposition table passed to runTrajectory is updated like in
+ *  MctsNodeImpl, but the nodes themselves take its place in selection.
+ *
+ * A trajectory that would step back into a position already on its
+ *  path stops there, and the repeating move is scored as a draw.  Only
+ *  positions with the same player to act since the last irreversible
+ *  move can repeat, so the path keeps the hash of every ply and checks
+ *  every other one of them, as far back as the reversible move clock.
+ *
+ * Any number of threads can run trajectories through the same graph at
+ *  once, with virtual loss on both nodes and edges.  The table is kept
+ *  in two generations like TransTable: when trajectories start from a
+ *  new root, a new epoch starts, and nodes that no trajectory passes
+ *  through during it are let go of by the table.
+ *
+ * Unlike MctsNodeImpl, nodes are not solved, and there is no memory
+ *  budget.
+ */
+public class MctsDagNode<V extends MctsValue<V>>
+        implements MctsNode<V>
+{
+    //--------------------------------------------------------------------
+    public static class Factory<V extends MctsValue<V>>
+            implements MctsNode.Factory<V> {
+        @Override
+        public MctsDagNode<V> newNode(
+                State                state,
+                MctsValue.Factory<V> valueFactory)
+        {
+            return new Graph<V>().nodeFor(
+                    state, valueFactory, new int[ Move.MAX_PER_PLY ]);
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    private static final double REPETITION_REWARD = 0.5;
+
+    private static final ThreadLocal<Trajectory> TRAJECTORY =
+            new ThreadLocal<Trajectory>() {
+                @Override protected Trajectory initialValue() {
+                    return new Trajectory();
+                }
+            };
+
+
+    //--------------------------------------------------------------------
+    private final V                                value;
+    private final long                             stateHash;
+    private final int[]                            acts;
+    private final AtomicReferenceArray<Edge<V>>    edges;
+    private final Graph<V>                         graph;
+
+    // last epoch of the graph it was kept in, see Graph.touch
+    private       int                              epoch;
+
+
+    //--------------------------------------------------------------------
+    private MctsDagNode(
+            State                state,
+            MctsValue.Factory<V> valueFactory,
+            Graph<V>             dag,
+            int[]                moveBuffer) {
+        int nMoves = state.legalMoves(moveBuffer);
+
+        value     = valueFactory.newValue();
+        stateHash = state.transpositionHashCode();
+        acts      = (nMoves == -1)
+                    ? null
+                    : Arrays.copyOf(moveBuffer, nMoves);
+        edges     = (acts == null)
+                    ? null
+                    : new AtomicReferenceArray<Edge<V>>(acts.length);
+        graph     = dag;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public void runTrajectory(
+            State                 fromProtoState,
+            MctsValue.Factory<V>  values,
+            MctsRollout           mcRollout,
+            TranspositionTable<V> transpositionTable,
+            MctsHeuristic         heuristic)
+    {
+        if (graph.root != this) {
+            graph.rootAt(this);
+        }
+
+        Trajectory path   = TRAJECTORY.get();
+        State      cursor = path.start(fromProtoState);
+
+        // descend until reaching a node no other playout went through,
+        //  or a move that repeats a position
+        MctsDagNode<V> node    = this;
+        boolean        visited = (value.addVirtualLoss() != 0);
+        path.add(node, null);
+        while (visited)
+        {
+            Edge<V> edge = node.descendByBandit(
+                    cursor, heuristic, values, path);
+            if (edge == null) break;
+
+            if (path.repeats(edge.node.stateHash,
+                    cursor.reversibleMoves())) {
+                edge.value.update(REPETITION_REWARD);
+                break;
+            }
+
+            node = edge.node;
+            edge.value.addVirtualLoss();
+            visited = (node.value.addVirtualLoss() != 0);
+            path.add(node, edge);
+        }
+
+        backupMcValue(path,
+                (path.repeated)
+                ? REPETITION_REWARD
+                : mcRollout.monteCarloPlayout(cursor, heuristic),
+                transpositionTable);
+    }
+
+
+    //--------------------------------------------------------------------
+    /*
+     * @return edge to the child with the greatest bandit value, with
+     *          the cursor moved to it, or null if the game is over
+     */
+    private Edge<V> descendByBandit(
+            State                cursor,
+            MctsHeuristic        heuristic,
+            MctsValue.Factory<V> values,
+            Trajectory           path)
+    {
+        // the clock is part of the hash this close to the 50 move rule,
+        //  so whether it applies is the same for every path to the node
+        if (acts == null || acts.length == 0 ||
+                cursor.isDrawnBy50MovesRule()) return null;
+
+        // parent terms are the same for every child
+        int    parentVisits = value.visits();
+        double parentLog    = UcbMath.log(parentVisits);
+
+        double greatestValue      = Double.NEGATIVE_INFINITY;
+        int    greatestValueIndex = -1;
+        for (int i = 0; i < acts.length; i++) {
+            Edge<V> edge = edges.get( i );
+
+            double banditValue;
+            if (edge == null || edge.value.visits() == 0) {
+                banditValue = heuristic.firstPlayUrgency(acts[i]);
+            } else {
+                banditValue = edge.value.confidenceBound(
+                        edge.node.value.packedStats(),
+                        parentVisits, parentLog);
+            }
+
+            if (banditValue > greatestValue) {
+                greatestValue      = banditValue;
+                greatestValueIndex = i;
+            }
+        }
+
+        Move.apply(acts[greatestValueIndex], cursor);
+        Edge<V> edge = edges.get( greatestValueIndex );
+        if (edge != null) {
+            if (edge.node.epoch != graph.epoch) {
+                graph.touch( edge.node );
+            }
+        } else {
+            // if another thread gets there first, go with its edge
+            edges.compareAndSet(greatestValueIndex, null, new Edge<V>(
+                    graph.nodeFor(cursor, values, path.moves),
+                    values.newValue()));
+            edge = edges.get( greatestValueIndex );
+        }
+        return edge;
+    }
+
+
+    //--------------------------------------------------------------------
+    private void backupMcValue(
+            Trajectory            path,
+            double                leafPlayout,
+            TranspositionTable<V> transpositionTable)
+    {
+        double reward = 1.0 - leafPlayout;
+        for (int i = path.size - 1; i >= 0; i--)
+        {
+            Edge<V>        pathEdge = path.edgeOf(i);
+            MctsDagNode<V> pathNode = path.take(i);
+
+            pathNode.value.resolveVirtualLoss(reward);
+            if (pathEdge != null) {
+                pathEdge.value.resolveVirtualLoss(reward);
+            }
+            transpositionTable.update(
+                    pathNode.stateHash, reward);
+
+            reward = 1.0 - reward;
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public MctsAction<V> bestMove(MctsSelector<V> selector) {
+        if (acts == null || acts.length == 0) return null;
+
+        int            bestAct = -1;
+        MctsDagNode<V> bestKid = null;
+        for (int i = 0; i < acts.length; i++) {
+            Edge<V> edge = edges.get(i);
+            if (edge != null && (bestKid == null ||
+                    selector.compare(bestKid.value, edge.node.value) < 0)) {
+                bestKid = edge.node;
+                bestAct = acts[i];
+            }
+        }
+        return new MctsAction<V>(bestAct, bestKid);
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public MctsNode<V> childMatching(int action) {
+        if (acts == null) return null;
+
+        for (int i = 0; i < acts.length; i++) {
+            if (acts[i] == action) {
+                Edge<V> edge = edges.get(i);
+                return (edge == null ? null : edge.node);
+            }
+        }
+        return null;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public MctsNode<V> childMatchingState(long stateHash) {
+        if (edges == null) return null;
+
+        for (int i = 0; i < edges.length(); i++) {
+            Edge<V> edge = edges.get(i);
+            if (edge != null && edge.node.stateHash == stateHash) {
+                return edge.node;
+            }
+        }
+        return null;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public int mostVisited(int[] topTwoVisits) {
+        topTwoVisits[0] = 0;
+        topTwoVisits[1] = 0;
+        if (edges == null) return -1;
+
+        int bestAct = -1;
+        for (int i = 0; i < edges.length(); i++) {
+            Edge<V> edge = edges.get(i);
+            if (edge == null) continue;
+
+            int visits = edge.node.value.visits();
+            if (bestAct == -1 || visits > topTwoVisits[0]) {
+                topTwoVisits[1] = topTwoVisits[0];
+                topTwoVisits[0] = visits;
+                bestAct         = acts[i];
+            } else if (visits > topTwoVisits[1]) {
+                topTwoVisits[1] = visits;
+            }
+        }
+        return bestAct;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public boolean isSolved() {
+        return false;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public V value() {
+        return value;
+    }
+
+
+    //--------------------------------------------------------------------
+    /*
+     * Depth first without recursion, every node once however many
+     *  paths lead to it.
+     */
+    @Override
+    public void addStates(LongCollection to) {
+        LongSet              seen  = new LongOpenHashSet();
+        List<MctsDagNode<V>> stack = new ArrayList<MctsDagNode<V>>();
+
+        seen.add(stateHash);
+        stack.add(this);
+        while (! stack.isEmpty()) {
+            MctsDagNode<V> node = stack.remove(stack.size() - 1);
+            to.add(node.stateHash);
+
+            if (node.edges == null) continue;
+            for (int i = 0; i < node.edges.length(); i++) {
+                Edge<V> edge = node.edges.get(i);
+                if (edge != null && seen.add(edge.node.stateHash)) {
+                    stack.add(edge.node);
+                }
+            }
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public String toString() {
+        return graph.size() + " | " +
+               value.toString();
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Move of a node, with the statistics of the playouts that took it.
+     */
+    private static class Edge<V extends MctsValue<V>>
+    {
+        public final MctsDagNode<V> node;
+        public final V              value;
+
+        public Edge(MctsDagNode<V> kid, V edgeValue) {
+            node  = kid;
+            value = edgeValue;
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Nodes of a graph by transposition hash, in two generations: a
+     *  node of the previous one moves to the current one when it is
+     *  looked up, and the rest are let go of by the next epoch, which
+     *  starts when trajectories start from a new root.
+     */
+    private static class Graph<V extends MctsValue<V>>
+    {
+        private Long2ObjectMap<MctsDagNode<V>> current  =
+                new Long2ObjectOpenHashMap<MctsDagNode<V>>();
+        private Long2ObjectMap<MctsDagNode<V>> previous =
+                new Long2ObjectOpenHashMap<MctsDagNode<V>>();
+
+        private volatile MctsDagNode<V>        root;
+        private volatile int                   epoch;
+
+        /*
+         * @return the node of the state, created if there isn't one
+         */
+        public synchronized MctsDagNode<V> nodeFor(
+                State                state,
+                MctsValue.Factory<V> values,
+                int[]                moveBuffer) {
+            long           stateHash = state.transpositionHashCode();
+            MctsDagNode<V> node      = current.get( stateHash );
+            if (node == null) {
+                node = previous.remove( stateHash );
+                if (node == null) {
+                    node = new MctsDagNode<V>(
+                            state, values, this, moveBuffer);
+                }
+                current.put( stateHash, node );
+                node.epoch = epoch;
+            }
+            return node;
+        }
+
+        /*
+         * Keeps a node that a trajectory passed through in the current
+         *  generation.
+         */
+        public synchronized void touch(MctsDagNode<V> node) {
+            if (node.epoch == epoch) return;
+
+            previous.remove( node.stateHash );
+            if (current.get( node.stateHash ) == null) {
+                current.put( node.stateHash, node );
+            }
+            node.epoch = epoch;
+        }
+
+        public synchronized void rootAt(MctsDagNode<V> node) {
+            if (root == node) return;
+
+            previous = current;
+            current  = new Long2ObjectOpenHashMap<MctsDagNode<V>>();
+            epoch++;
+
+            touch( node );
+            root = node;
+        }
+
+        public synchronized int size() {
+            return current.size() + previous.size();
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Per thread path of the current trajectory, grown as needed: the
+     *  node of every ply with the edge that led to it, and its hash,
+     *  which stays behind once the node is let go of.
+     */
+    private static class Trajectory
+    {
+        private final State         cursor   = State.initial();
+        private final int[]         moves    = new int[ Move.MAX_PER_PLY ];
+        private       MctsDagNode[] nodes    = new MctsDagNode[ 64 ];
+        private       Edge[]        edges    = new Edge[ 64 ];
+        private       long[]        hashes   = new long[ 64 ];
+        private       int           size;
+        private       boolean       repeated;
+
+        public State start(State from) {
+            cursor.copyFrom( from );
+            size     = 0;
+            repeated = false;
+            return cursor;
+        }
+
+        public void add(MctsDagNode<?> node, Edge<?> edge) {
+            if (size == nodes.length) {
+                nodes  = Arrays.copyOf(nodes,  size * 2);
+                edges  = Arrays.copyOf(edges,  size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            nodes [ size   ] = node;
+            edges [ size   ] = edge;
+            hashes[ size++ ] = node.stateHash;
+        }
+
+        /*
+         * @param stateHash of the position the next ply would reach
+         * @param reversibleMoves plies since the last irreversible move,
+         *          counting the next one
+         * @return true if the position is already on the path
+         */
+        public boolean repeats(long stateHash, int reversibleMoves) {
+            int stop = Math.max(0, size - reversibleMoves);
+            for (int ply = size - 2; ply >= stop; ply -= 2) {
+                if (hashes[ ply ] == stateHash) {
+                    repeated = true;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <V extends MctsValue<V>> Edge<V> edgeOf(int i) {
+            return edges[ i ];
+        }
+
+        @SuppressWarnings("unchecked")
+        public <V extends MctsValue<V>> MctsDagNode<V> take(int i) {
+            MctsDagNode<V> node = nodes[ i ];
+            nodes[ i ] = null;
+            edges[ i ] = null;
+            return node;
+        }
+    }
+}
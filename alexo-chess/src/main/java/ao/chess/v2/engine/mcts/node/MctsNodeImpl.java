@@ -1,22 +1,51 @@
 package ao.chess.v2.engine.mcts.node;
 
+import ao.chess.v2.engine.MemoryBudget;
 import ao.chess.v2.engine.endgame.tablebase.DeepOutcome;
 import ao.chess.v2.engine.endgame.tablebase.DeepOracle;
 import ao.chess.v2.engine.mcts.*;
 import ao.chess.v2.engine.mcts.message.MctsAction;
+import ao.chess.v2.engine.mcts.value.UcbMath;
 import ao.chess.v2.state.Move;
 import ao.chess.v2.state.State;
 import it.unimi.dsi.fastutil.longs.LongCollection;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * User: alex
  * Date: 27-Sep-2009
  * Time: 5:19:10 PM
+ *
+ * Any number of threads can run trajectories through the same tree at
+ *  once: children are created with a compare-and-set, and every node
+ *  on a path takes a virtual loss until its playout is backed up.
+ *
+ * The path and cursor of a trajectory are kept per thread, so once the
+ *  tree is warm only the node it adds is allocated.
+ *
+ * Nodes are solved where possible, in the sense of MCTS-Solver: mates,
+ *  stalemates, the 50 move rule, material that can't mate and positions
+ *  known to the DeepOracle tablebase are proven when their node is
+ *  created, and a node is proven once one of its children is a proven
+ *  win, or all of them are proven.  Proven children are never descended
+ *  into again, a trajectory that reaches a proven node backs up its
+ *  outcome instead of playing out, and a proven root is isSolved().
+ *  Proofs are from the point of view of the player who moved into the
+ *  node, like its value, with the number of plies to the end of the
+ *  game.
+ *
+ * Nodes with many moves that are visited often keep a BanditIndex of
+ *  their children, so that selection only scores the few children that
+ *  could have the greatest bound instead of all of them.  It picks the
+ *  same child as scoring them all, and is skipped while transpositions
+ *  are tracked, as those change bounds behind the node's back.
+ *
+ * With a MemoryBudget, the tree drops its least visited subtrees once
+ *  it grows past the budget, they are grown again if selected later.
  */
 public class MctsNodeImpl<V extends MctsValue<V>>
         implements MctsNode<V>
@@ -24,35 +53,134 @@ public class MctsNodeImpl<V extends MctsValue<V>>
     //--------------------------------------------------------------------
     public static class Factory<V extends MctsValue<V>>
             implements MctsNode.Factory<V> {
+        private final MemoryBudget budget;
+
+        public Factory() {
+            this(null);
+        }
+
+        /**
+         * @param budget bounds every new tree, null if unbounded
+         */
+        public Factory(MemoryBudget budget) {
+            this.budget = budget;
+        }
+
         @Override
         public MctsNodeImpl<V> newNode(
                 State                state,
                 MctsValue.Factory<V> valueFactory)
         {
-            return new MctsNodeImpl<V>(state, valueFactory);
+            return new MctsNodeImpl<V>(state, valueFactory, budget);
         }
     }
 
 
     //--------------------------------------------------------------------
-    private V                 value;
-    private long              stateHash;
-    private int[]             acts;
-    private MctsNodeImpl<V>[] kids;
+    // node, value and array headers, without the 8 bytes per move
+    private static final int  NODE_BYTES     = 128;
+    private static final long MAX_STEP_BYTES =
+            NODE_BYTES + 8 * Move.MAX_PER_PLY;
+
+    private static final ThreadLocal<Trajectory> TRAJECTORY =
+            new ThreadLocal<Trajectory>() {
+                @Override protected Trajectory initialValue() {
+                    return new Trajectory();
+                }
+            };
+
+    // positions with more pieces are not looked up in DeepOracle
+    private static final int  TABLEBASE_PIECES = 5;
+
+    // nodes with fewer moves or visits score all of their children
+    private static final int    INDEX_MIN_KIDS   = 16;
+    private static final int    INDEX_MIN_VISITS = 64;
+
+    // relative rounding error allowed for when comparing to bounds
+    private static final double INDEX_SLACK      = 1e-9;
+
+    private static final byte UNPROVEN = 0;
+    private static final byte WIN      = 1;
+    private static final byte LOSS     = 2;
+    private static final byte DRAW     = 3;
+
+
+    //--------------------------------------------------------------------
+    private final V                                     value;
+    private final long                                  stateHash;
+    private final int[]                                 acts;
+    private final AtomicReferenceArray<MctsNodeImpl<V>> kids;
+    private final MemoryBudget                          budget;
+
+    // plies are written before the proof that publishes them
+    private volatile byte                               proof;
+    private          int                                proofPlies;
+
+    // created once visited enough, dropped when children are pruned
+    private volatile BanditIndex                        index;
 
 
     //--------------------------------------------------------------------
     public MctsNodeImpl(State state, MctsValue.Factory<V> valueFactory) {
+        this(state, valueFactory, null);
+    }
+
+    public MctsNodeImpl(
+            State                state,
+            MctsValue.Factory<V> valueFactory,
+            MemoryBudget         memoryBudget) {
+        this(state, valueFactory, memoryBudget,
+             new int[ Move.MAX_PER_PLY ]);
+    }
+
+    private MctsNodeImpl(
+            State                state,
+            MctsValue.Factory<V> valueFactory,
+            MemoryBudget         memoryBudget,
+            int[]                moveBuffer) {
+        int nMoves = state.legalMoves(moveBuffer);
+
         value     = valueFactory.newValue();
-        stateHash = state.longHashCode();
-        acts      = null;
-        kids      = null;
+        stateHash = state.transpositionHashCode();
+        acts      = (nMoves == -1)
+                    ? null
+                    : Arrays.copyOf(moveBuffer, nMoves);
+        kids      = (acts == null)
+                    ? null
+                    : new AtomicReferenceArray<MctsNodeImpl<V>>(
+                            acts.length);
+        budget    = memoryBudget;
+
+        if (acts != null) {
+            proveOutcome(state);
+        }
+    }
+
+    private void proveOutcome(State state)
+    {
+        if (acts.length == 0) {
+            setProof(state.isInCheck(state.nextToAct())
+                     ? WIN : DRAW, 0);
+        } else if (state.isDrawnBy50MovesRule() ||
+                state.isDrawnByInsufficientMaterial()) {
+            setProof(DRAW, 0);
+        } else if (state.pieceCount() <= TABLEBASE_PIECES) {
+            DeepOutcome outcome = DeepOracle.INSTANCE.see(state);
+            if (outcome == null) return;
+
+            if (outcome.isDraw()) {
+                setProof(DRAW, 0);
+            } else {
+                setProof(outcome.winner() == state.nextToAct()
+                         ? LOSS : WIN, outcome.plyDistance());
+            }
+        }
     }
 
 
     //--------------------------------------------------------------------
     public boolean isUnvisited() {
-        return acts == null;
+        return value.visits() == 0;
     }
 
 
@@ -65,31 +193,37 @@ public class MctsNodeImpl<V extends MctsValue<V>>
             TranspositionTable<V> transpositionTable,
             MctsHeuristic         heuristic)
     {
-        State cursor = fromProtoState.prototype();
-        List<MctsNodeImpl<V>> path =
-                new ArrayList<MctsNodeImpl<V>>();
-        path.add(this);
-
-        while (! path.get( path.size() - 1 ).isUnvisited())
+        Trajectory path   = TRAJECTORY.get();
+        State      cursor = path.start(fromProtoState);
+
+        // descend until reaching a node no other playout went through,
+        //  or one whose outcome is proven
+        MctsNodeImpl<V> node    = this;
+        boolean         visited = (value.addVirtualLoss() != 0);
+        path.add(node);
+        while (visited && node.proof == UNPROVEN)
         {
-            MctsNodeImpl<V> node = path.get( path.size() - 1 );
-
             MctsNodeImpl<V> selectedChild =
                     node.descendByBandit(cursor, heuristic, values,
-                            transpositionTable);
+                            transpositionTable, path);
             if (selectedChild == null) break;
 
-            path.add( selectedChild );
-        }
-
-        MctsNodeImpl<V> leaf = path.get( path.size() - 1 );
-        if (leaf.kids == null) {
-            leaf.initiateKids(cursor/*, transpositionTable*/);
+            node    = selectedChild;
+            visited = (node.value.addVirtualLoss() != 0);
+            path.add(node);
         }
 
+        byte leafProof = node.proof;
         backupMcValue(path,
-                mcRollout.monteCarloPlayout(cursor, heuristic),
+                (leafProof == UNPROVEN)
+                ? mcRollout.monteCarloPlayout(cursor, heuristic)
+                : 1.0 - provenReward(leafProof),
+                leafProof != UNPROVEN,
                 transpositionTable);
+
+        if (budget != null && budget.step()) {
+            pruneToBudget();
+        }
     }
 
 
@@ -98,22 +232,73 @@ public class MctsNodeImpl<V extends MctsValue<V>>
             State                 cursor,
             MctsHeuristic         heuristic,
             MctsValue.Factory<V>  values,
-            TranspositionTable<V> transTable)
+            TranspositionTable<V> transTable,
+            Trajectory            path)
     {
-        if (kids.length == 0) return null;
+        if (acts == null || acts.length == 0) return null;
+
+        // parent terms are the same for every child
+        int     parentVisits = value.visits();
+        double  parentLog    = UcbMath.log(parentVisits);
+        boolean transposes   = transTable.isTracking();
+
+        int         greatestValueIndex;
+        BanditIndex bandits = (transposes ? null : banditIndex(parentVisits));
+        if (bandits == null) {
+            greatestValueIndex = scoreAll(heuristic, transTable,
+                    transposes, parentVisits, parentLog);
+        } else {
+            synchronized (bandits) {
+                greatestValueIndex = scoreBest(
+                        bandits, heuristic, parentVisits, parentLog);
+            }
+        }
+        if (greatestValueIndex == -1) {
+            // every child is proven
+            prove();
+            return null;
+        }
 
+        path.picked( greatestValueIndex );
+        Move.apply(acts[greatestValueIndex], cursor);
+        MctsNodeImpl<V> kid = kids.get( greatestValueIndex );
+        if (kid == null) {
+            // if another thread gets there first, go with its node
+            kids.compareAndSet(greatestValueIndex,
+                    null, new MctsNodeImpl<V>(
+                            cursor, values, budget, path.moves));
+            kid = kids.get( greatestValueIndex );
+        }
+        return kid;
+    }
+
+
+    //--------------------------------------------------------------------
+    /*
+     * @return index of the child with the greatest bandit value, or -1
+     *          if every child is proven
+     */
+    private int scoreAll(
+            MctsHeuristic         heuristic,
+            TranspositionTable<V> transTable,
+            boolean               transposes,
+            int                   parentVisits,
+            double                parentLog)
+    {
         double greatestValue      = Double.NEGATIVE_INFINITY;
         int    greatestValueIndex = -1;
-        for (int i = 0; i < kids.length; i++) {
-            MctsNodeImpl<V> kid = kids[ i ];
+        for (int i = 0; i < acts.length; i++) {
+            MctsNodeImpl<V> kid = kids.get( i );
 
             double banditValue;
-            if (kid == null || kid.isUnvisited()) {
+            if (kid != null && kid.proof != UNPROVEN) {
+                continue;
+            } else if (kid == null || kid.isUnvisited()) {
                 banditValue = heuristic.firstPlayUrgency(acts[i]);
             } else {
                 banditValue = kid.value.confidenceBound(
-                        transTable.get(kid.stateHash),
-                        value);
+                        transposes ? transTable.packed(kid.stateHash) : 0,
+                        parentVisits, parentLog);
             }
 
 //            double banditValue;
@@ -130,58 +315,313 @@ public class MctsNodeImpl<V extends MctsValue<V>>
                 greatestValueIndex = i;
             }
         }
-        if (greatestValueIndex == -1) return null;
+        return greatestValueIndex;
+    }
 
-        Move.apply(acts[greatestValueIndex], cursor);
-        if (kids[ greatestValueIndex ] == null) {
-            kids[ greatestValueIndex ] =
-                    new MctsNodeImpl<V>(cursor, values);
+
+    //--------------------------------------------------------------------
+    /*
+     * Like scoreAll, but only scores children whose bound in the index
+     *  is at least the greatest value found so far.  Ties go to the
+     *  first child, as they do in scoreAll.
+     *
+     * Called with the index locked.
+     */
+    private int scoreBest(
+            BanditIndex   bandits,
+            MctsHeuristic heuristic,
+            int           parentVisits,
+            double        parentLog)
+    {
+        double greatestValue      = Double.NEGATIVE_INFINITY;
+        int    greatestValueIndex = -1;
+
+        // scored by first play urgency, and indexed once visited
+        for (int u = bandits.unvisitedCount() - 1; u >= 0; u--) {
+            int             i   = bandits.unvisited(u);
+            MctsNodeImpl<V> kid = kids.get( i );
+            if (kid != null && kid.proof != UNPROVEN) {
+                bandits.removeUnvisited(u);
+                continue;
+            } else if (kid != null && ! kid.isUnvisited()) {
+                bandits.removeUnvisited(u);
+                bandits.add(i);
+                continue;
+            }
+
+            double banditValue = heuristic.firstPlayUrgency(acts[i]);
+            if (banditValue > greatestValue || (
+                    banditValue == greatestValue &&
+                    i < greatestValueIndex)) {
+                greatestValue      = banditValue;
+                greatestValueIndex = i;
+            }
+        }
+
+        while (! bandits.isEmpty() && bandits.topKey() * parentLog *
+                (1 + INDEX_SLACK) >= greatestValue) {
+            int             i   = bandits.take();
+            MctsNodeImpl<V> kid = kids.get( i );
+
+            double banditValue;
+            if (kid == null) {
+                bandits.addUnvisited(i);
+                banditValue = heuristic.firstPlayUrgency(acts[i]);
+            } else if (kid.proof != UNPROVEN) {
+                // left out of the index for good
+                continue;
+            } else {
+                banditValue = kid.value.confidenceBound(
+                        0, parentVisits, parentLog);
+                bandits.putBack(i, (banditValue > 0)
+                                   ? banditValue / parentLog
+                                   : 0);
+            }
+
+            if (banditValue > greatestValue || (
+                    banditValue == greatestValue &&
+                    i < greatestValueIndex)) {
+                greatestValue      = banditValue;
+                greatestValueIndex = i;
+            }
         }
-        return kids[ greatestValueIndex ];
+
+        bandits.restore();
+        if (greatestValueIndex != -1) {
+            bandits.stale( greatestValueIndex );
+        }
+        return greatestValueIndex;
     }
 
-    @SuppressWarnings("unchecked")
-    private void initiateKids(
-            State                 fromState/*,
-            TranspositionTable<V> transTable*/) {
-        acts = fromState.legalMoves(/*transTable*/);
-        kids = (acts == null)
-               ? null : new MctsNodeImpl[ acts.length ];
+
+    //--------------------------------------------------------------------
+    /*
+     * @return index of the children, null if this node is not worth one
+     */
+    private BanditIndex banditIndex(int visits)
+    {
+        BanditIndex bandits = index;
+        if (bandits != null || acts.length < INDEX_MIN_KIDS ||
+                visits < INDEX_MIN_VISITS) {
+            return bandits;
+        }
+
+        synchronized (this) {
+            if (index == null) {
+                bandits = new BanditIndex(acts.length);
+                for (int i = 0; i < acts.length; i++) {
+                    MctsNodeImpl<V> kid = kids.get( i );
+                    if (kid == null || kid.isUnvisited()) {
+                        bandits.addUnvisited(i);
+                    } else if (kid.proof == UNPROVEN) {
+                        bandits.add(i);
+                    }
+                }
+                index = bandits;
+            }
+            return index;
+        }
     }
 
 
     //--------------------------------------------------------------------
     private void backupMcValue(
-            List<MctsNodeImpl<V>> path,
+            Trajectory            path,
             double                leafPlayout,
+            boolean               leafProven,
             TranspositionTable<V> transpositionTable)
     {
-        double reward = 1.0 - leafPlayout;
+        double  reward = 1.0 - leafPlayout;
 //        double reward = leafPlayout;
 
-        for (int i = path.size() - 1; i >= 0; i--)
+        boolean proven = leafProven;
+        for (int i = path.size - 1; i >= 0; i--)
         {
-            path.get(i).value.update(reward);
+            MctsNodeImpl<V> pathNode = path.take(i);
+            if (proven) {
+                proven = pathNode.prove();
+            }
+
+            pathNode.value.resolveVirtualLoss(reward);
             transpositionTable.update(
-                    path.get(i).stateHash, reward);
+                    pathNode.stateHash, reward);
+
+            if (i > 0) {
+                path.<V>peek(i - 1).staleBound(path.pickOf(i));
+            }
 
             reward = 1.0 - reward;
         }
     }
 
 
+    private void staleBound(int kidIndex)
+    {
+        BanditIndex bandits = index;
+        if (bandits == null) return;
+
+        synchronized (bandits) {
+            bandits.stale( kidIndex );
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /*
+     * Backs up the proofs of the children minimax style: a child that
+     *  is a proven win makes this a loss for the player who moved into
+     *  it, if all of them are proven this is a draw if any of them is,
+     *  and a win otherwise.
+     *
+     * @return true if this node is proven
+     */
+    private boolean prove()
+    {
+        if (proof != UNPROVEN) return true;
+        if (kids  == null    ) return false;
+
+        boolean allProven = true;
+        boolean canDraw   = false;
+        int     winPlies  = -1;
+        int     lossPlies = -1;
+        for (int i = 0; i < kids.length(); i++) {
+            MctsNodeImpl<V> kid = kids.get(i);
+            byte kidProof = (kid == null ? UNPROVEN : kid.proof);
+            switch (kidProof) {
+                case WIN:
+                    if (winPlies == -1 || kid.proofPlies < winPlies) {
+                        winPlies = kid.proofPlies;
+                    }
+                    break;
+
+                case LOSS:
+                    lossPlies = Math.max(lossPlies, kid.proofPlies);
+                    break;
+
+                case DRAW:
+                    canDraw = true;
+                    break;
+
+                default:
+                    allProven = false;
+            }
+        }
+
+        if (winPlies != -1) {
+            setProof(LOSS, winPlies + 1);
+        } else if (! allProven) {
+            return false;
+        } else if (canDraw) {
+            setProof(DRAW, 0);
+        } else {
+            setProof(WIN, lossPlies + 1);
+        }
+        return true;
+    }
+
+    private void setProof(byte outcome, int plies)
+    {
+        proofPlies = plies;
+        proof      = outcome;
+    }
+
+    /*
+     * @return reward of a proven node for the player who moved into it
+     */
+    private static double provenReward(byte proof)
+    {
+        switch (proof) {
+            case WIN:  return 1.0;
+            case LOSS: return 0.0;
+            default:   return 0.5;
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /*
+     * Drops subtrees with at most 1, 2, 4... visits, until the tree is
+     *  down to the target of the budget.  Threads still in a dropped
+     *  subtree finish their trajectory in it, unaffected.
+     */
+    private void pruneToBudget()
+    {
+        long bytes = bytes();
+        if (budget.isExceeded(bytes)) {
+            budget.startPruning();
+
+            int rootVisits = value.visits();
+            for (int threshold = 1;
+                    bytes > budget.target() && threshold < rootVisits;
+                    threshold *= 2) {
+                bytes -= pruneColderThan(threshold);
+            }
+        }
+        budget.measured(bytes, MAX_STEP_BYTES);
+    }
+
+    private long pruneColderThan(int threshold)
+    {
+        if (kids == null) return 0;
+
+        long freed = 0;
+        for (int i = 0; i < kids.length(); i++) {
+            MctsNodeImpl<V> kid = kids.get(i);
+            if (kid == null) continue;
+
+            // proven children are kept, their proof stands for them
+            if (kid.value.visits() <= threshold &&
+                    kid.proof == UNPROVEN) {
+                if (kids.compareAndSet(i, kid, null)) {
+                    index = null;
+
+                    long kidBytes = kid.bytes();
+                    budget.evicted(kidBytes);
+                    freed += kidBytes;
+                }
+            } else {
+                freed += kid.pruneColderThan(threshold);
+            }
+        }
+        return freed;
+    }
+
+    private long bytes() {
+        if (kids == null) return NODE_BYTES;
+
+        long bytes = NODE_BYTES + 8 * kids.length();
+
+        BanditIndex bandits = index;
+        if (bandits != null) {
+            bytes += bandits.bytes();
+        }
+        for (int i = 0; i < kids.length(); i++) {
+            MctsNodeImpl<V> kid = kids.get(i);
+            if (kid == null) continue;
+            bytes += kid.bytes();
+        }
+        return bytes;
+    }
+
+
     //--------------------------------------------------------------------
     @Override
     public MctsAction<V> bestMove(MctsSelector<V> selector) {
-        if (kids == null || kids.length == 0) return null;
+        if (acts == null || acts.length == 0) return null;
+
+        int provenWin = provenWinIndex();
+        if (provenWin != -1) {
+            return new MctsAction<V>(
+                    acts[provenWin], kids.get(provenWin));
+        }
 
+        // proven losses only if nothing else is left, the longest one
         int             bestAct = -1;
         MctsNodeImpl<V> bestKid = null;
-        for (int i = 0, kidsLength = kids.length; i < kidsLength; i++) {
-            MctsNodeImpl<V> kid = kids[i];
+        for (int i = 0, kidsLength = acts.length; i < kidsLength; i++) {
+            MctsNodeImpl<V> kid = kids.get(i);
             if (kid != null && (bestKid == null ||
-                    selector.compare(
-                            bestKid.value, kid.value) < 0)) {
+                    isBetterMove(selector, bestKid, kid))) {
                 bestKid = kid;
                 bestAct = acts[i];
             }
@@ -189,16 +629,46 @@ public class MctsNodeImpl<V extends MctsValue<V>>
         return new MctsAction<V>(bestAct, bestKid);
     }
 
+    private int provenWinIndex()
+    {
+        int bestIndex = -1;
+        int bestPlies = -1;
+        for (int i = 0; i < acts.length; i++) {
+            MctsNodeImpl<V> kid = kids.get(i);
+            if (kid != null && kid.proof == WIN && (bestIndex == -1 ||
+                    kid.proofPlies < bestPlies)) {
+                bestIndex = i;
+                bestPlies = kid.proofPlies;
+            }
+        }
+        return bestIndex;
+    }
+
+    private boolean isBetterMove(
+            MctsSelector<V> selector,
+            MctsNodeImpl<V> best,
+            MctsNodeImpl<V> kid)
+    {
+        boolean bestLoses = (best.proof == LOSS);
+        boolean kidLoses  = (kid .proof == LOSS);
+        if (bestLoses != kidLoses) {
+            return bestLoses;
+        } else if (bestLoses) {
+            return kid.proofPlies > best.proofPlies;
+        }
+        return selector.compare(best.value, kid.value) < 0;
+    }
+
 
     //--------------------------------------------------------------------
     @Override
-    public MctsNode childMatching(int action) {
+    public MctsNode<V> childMatching(int action) {
         if (acts == null) return null;
 
         for (int i = 0, actsLength = acts.length; i < actsLength; i++) {
             int act = acts[i];
             if (act == action) {
-                return kids[i];
+                return kids.get(i);
             }
         }
         
@@ -206,6 +676,60 @@ public class MctsNodeImpl<V extends MctsValue<V>>
     }
 
 
+    //--------------------------------------------------------------------
+    @Override
+    public MctsNode<V> childMatchingState(long stateHash) {
+        if (kids == null) return null;
+
+        for (int i = 0; i < kids.length(); i++) {
+            MctsNodeImpl<V> kid = kids.get(i);
+            if (kid != null && kid.stateHash == stateHash) {
+                return kid;
+            }
+        }
+        return null;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public int mostVisited(int[] topTwoVisits) {
+        topTwoVisits[0] = 0;
+        topTwoVisits[1] = 0;
+        if (kids == null) return -1;
+
+        int bestAct = -1;
+        for (int i = 0; i < kids.length(); i++) {
+            MctsNodeImpl<V> kid = kids.get(i);
+            if (kid == null) continue;
+
+            int visits = kid.value.visits();
+            if (bestAct == -1 || visits > topTwoVisits[0]) {
+                topTwoVisits[1] = topTwoVisits[0];
+                topTwoVisits[0] = visits;
+                bestAct         = acts[i];
+            } else if (visits > topTwoVisits[1]) {
+                topTwoVisits[1] = visits;
+            }
+        }
+        return bestAct;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public boolean isSolved() {
+        return proof != UNPROVEN;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public V value() {
+        return value;
+    }
+
+
     //--------------------------------------------------------------------
     @Override
     public void addStates(LongCollection to) {
@@ -225,9 +749,19 @@ public class MctsNodeImpl<V extends MctsValue<V>>
         return //size()       + " | " +
                uniqueSize() + " | " +
                depth()      + " | " +
+               proofString() +
                value.toString();
     }
 
+    private String proofString() {
+        switch (proof) {
+            case WIN:  return "win in "  + proofPlies + " | ";
+            case LOSS: return "loss in " + proofPlies + " | ";
+            case DRAW: return "draw | ";
+            default:   return "";
+        }
+    }
+
     private int uniqueSize() {
         LongSet states = new LongOpenHashSet();
         addStates(states);
@@ -238,7 +772,8 @@ public class MctsNodeImpl<V extends MctsValue<V>>
         if (kids == null) return 0;
 
         int depth = 0;
-        for (MctsNodeImpl kid : kids) {
+        for (int i = 0; i < kids.length(); i++) {
+            MctsNodeImpl<V> kid = kids.get(i);
             if (kid == null) continue;
             depth = Math.max(depth, kid.depth());
         }
@@ -249,10 +784,66 @@ public class MctsNodeImpl<V extends MctsValue<V>>
         if (kids == null) return 1;
 
         int size = 1;
-        for (MctsNodeImpl kid : kids) {
+        for (int i = 0; i < kids.length(); i++) {
+            MctsNodeImpl<V> kid = kids.get(i);
             if (kid == null) continue;
             size += kid.size();
         }
         return size;
     }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Per thread path of the current trajectory, grown as needed.
+     *  Nodes are let go of as they are backed up, so that the path
+     *  doesn't keep a discarded tree reachable.  Along with each node
+     *  it keeps the index of that node among the children of the
+     *  previous one.
+     */
+    private static class Trajectory
+    {
+        private final State          cursor = State.initial();
+        private final int[]          moves  = new int[ Move.MAX_PER_PLY ];
+        private       MctsNodeImpl[] nodes  = new MctsNodeImpl[ 64 ];
+        private       int[]          picks  = new int[ 64 ];
+        private       int            size;
+
+        public State start(State from) {
+            cursor.copyFrom( from );
+            size = 0;
+            return cursor;
+        }
+
+        public void add(MctsNodeImpl<?> node) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            nodes[ size++ ] = node;
+        }
+
+        /* child index of the next node to be added */
+        public void picked(int kidIndex) {
+            if (size == picks.length) {
+                picks = Arrays.copyOf(picks, size * 2);
+            }
+            picks[ size ] = kidIndex;
+        }
+
+        public int pickOf(int i) {
+            return picks[ i ];
+        }
+
+        @SuppressWarnings("unchecked")
+        public <V extends MctsValue<V>> MctsNodeImpl<V> peek(int i) {
+            return nodes[ i ];
+        }
+
+        @SuppressWarnings("unchecked")
+        public <V extends MctsValue<V>> MctsNodeImpl<V> take(int i) {
+            MctsNodeImpl<V> node = nodes[ i ];
+            nodes[ i ] = null;
+            return node;
+        }
+    }
 }
@@ -0,0 +1,435 @@
+package ao.chess.v2.engine.mcts.node;
+
+import ao.chess.v2.engine.mcts.*;
+import ao.chess.v2.engine.mcts.message.MctsAction;
+import ao.chess.v2.engine.mcts.value.UcbMath;
+import ao.chess.v2.state.Move;
+import ao.chess.v2.state.State;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tree that widens progressively: the moves of a node are generated
+ *  pseudo-legal and ordered by the firstPlayUrgency of a heuristic (with
+ *  MctsCaptureHeuristic, captures first), and the bandit only chooses
+ *  among the first initialKids + widening * sqrt(visits) of them.  Each
+ *  move is only checked for legality once it is unlocked, and a child
+ *  is only created once it is selected.
+ *
+ * Legal moves are kept at the front of the moves of a node, in order,
+ *  and their count is published with a volatile write, so like
+ *  MctsNodeImpl any number of threads can search the same tree at once.
+ *  Unlocking more moves is rare, it locks the node.
+ */
+public class MctsWideningNode<V extends MctsValue<V>>
+        implements MctsNode<V>
+{
+    //--------------------------------------------------------------------
+    public static class Factory<V extends MctsValue<V>>
+            implements MctsNode.Factory<V> {
+        private final MctsHeuristic prior;
+        private final int           initialKids;
+        private final double        widening;
+
+        public Factory(MctsHeuristic prior) {
+            this(prior, 2, 1.0);
+        }
+
+        /**
+         * @param prior orders the moves of every node, best first
+         * @param initialKids moves open to the bandit from the start
+         * @param widening moves opened per square root of visits
+         */
+        public Factory(
+                MctsHeuristic prior,
+                int           initialKids,
+                double        widening) {
+            this.prior       = prior;
+            this.initialKids = initialKids;
+            this.widening    = widening;
+        }
+
+        @Override
+        public MctsWideningNode<V> newNode(
+                State                state,
+                MctsValue.Factory<V> valueFactory)
+        {
+            return new MctsWideningNode<V>(
+                    state, valueFactory, this,
+                    new int[ Move.MAX_PER_PLY ],
+                    new double[ Move.MAX_PER_PLY ]);
+        }
+
+        private int openKids(int visits) {
+            return initialKids + (int) (widening * Math.sqrt(visits));
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    private static final ThreadLocal<Trajectory> TRAJECTORY =
+            new ThreadLocal<Trajectory>() {
+                @Override protected Trajectory initialValue() {
+                    return new Trajectory();
+                }
+            };
+
+
+    //--------------------------------------------------------------------
+    private final V                                         value;
+    private final long                                      stateHash;
+    private final int[]                                     acts;
+    private final AtomicReferenceArray<MctsWideningNode<V>> kids;
+    private final Factory<V>                                factory;
+
+    // acts before legalCount are legal, acts from checkedCount on
+    //  haven't been checked yet, both only grow while locked
+    private volatile int                                    legalCount;
+    private volatile int                                    checkedCount;
+
+
+    //--------------------------------------------------------------------
+    private MctsWideningNode(
+            State                state,
+            MctsValue.Factory<V> valueFactory,
+            Factory<V>           widening,
+            int[]                moveBuffer,
+            double[]             priorBuffer) {
+        int nMoves = Math.max(0, state.moves(moveBuffer));
+        for (int i = 0; i < nMoves; i++) {
+            priorBuffer[i] = widening.prior.firstPlayUrgency(
+                    moveBuffer[i]);
+        }
+        sortByPrior(moveBuffer, priorBuffer, nMoves);
+
+        value        = valueFactory.newValue();
+        stateHash    = state.transpositionHashCode();
+        acts         = Arrays.copyOf(moveBuffer, nMoves);
+        kids         = new AtomicReferenceArray<MctsWideningNode<V>>(
+                            nMoves);
+        factory      = widening;
+        legalCount   = 0;
+        checkedCount = 0;
+    }
+
+    /*
+     * Insertion sort, best first: most nodes have a few dozen moves.
+     */
+    private static void sortByPrior(
+            int[] moves, double[] priors, int nMoves)
+    {
+        for (int i = 1; i < nMoves; i++) {
+            int    move  = moves [i];
+            double prior = priors[i];
+
+            int j = i - 1;
+            while (j >= 0 && priors[j] < prior) {
+                moves [j + 1] = moves [j];
+                priors[j + 1] = priors[j];
+                j--;
+            }
+            moves [j + 1] = move;
+            priors[j + 1] = prior;
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    public boolean isUnvisited() {
+        return value.visits() == 0;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public void runTrajectory(
+            State                 fromProtoState,
+            MctsValue.Factory<V>  values,
+            MctsRollout           mcRollout,
+            TranspositionTable<V> transpositionTable,
+            MctsHeuristic         heuristic)
+    {
+        Trajectory path   = TRAJECTORY.get();
+        State      cursor = path.start(fromProtoState);
+
+        // descend until reaching a node no other playout went through
+        MctsWideningNode<V> node    = this;
+        boolean             visited = (value.addVirtualLoss() != 0);
+        path.add(node);
+        while (visited)
+        {
+            node = node.descendByBandit(cursor, heuristic, values,
+                    transpositionTable, path);
+            if (node == null) break;
+
+            visited = (node.value.addVirtualLoss() != 0);
+            path.add(node);
+        }
+
+        double reward = 1.0 - mcRollout.monteCarloPlayout(
+                cursor, heuristic);
+        for (int i = path.size - 1; i >= 0; i--)
+        {
+            MctsWideningNode<V> pathNode = path.take(i);
+            pathNode.value.resolveVirtualLoss(reward);
+            transpositionTable.update(pathNode.stateHash, reward);
+
+            reward = 1.0 - reward;
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    private MctsWideningNode<V> descendByBandit(
+            State                 cursor,
+            MctsHeuristic         heuristic,
+            MctsValue.Factory<V>  values,
+            TranspositionTable<V> transTable,
+            Trajectory            path)
+    {
+        int open = legalCount;
+        if (checkedCount < acts.length) {
+            int allowed = factory.openKids(value.visits());
+            if (open < allowed) {
+                open = widen(cursor, allowed);
+            }
+        }
+        if (open == 0) return null;
+
+        // parent terms are the same for every child
+        int     parentVisits       = value.visits();
+        double  parentLog          = UcbMath.log(parentVisits);
+        boolean transposes         = transTable.isTracking();
+
+        double  greatestValue      = Double.NEGATIVE_INFINITY;
+        int     greatestValueIndex = -1;
+        for (int i = 0; i < open; i++) {
+            MctsWideningNode<V> kid = kids.get( i );
+
+            double banditValue;
+            if (kid == null || kid.isUnvisited()) {
+                banditValue = heuristic.firstPlayUrgency(acts[i]);
+            } else {
+                banditValue = kid.value.confidenceBound(
+                        transposes ? transTable.packed(kid.stateHash) : 0,
+                        parentVisits, parentLog);
+            }
+
+            if (banditValue > greatestValue) {
+                greatestValue      = banditValue;
+                greatestValueIndex = i;
+            }
+        }
+        if (greatestValueIndex == -1) return null;
+
+        Move.apply(acts[greatestValueIndex], cursor);
+        MctsWideningNode<V> kid = kids.get( greatestValueIndex );
+        if (kid == null) {
+            // if another thread gets there first, go with its node
+            kids.compareAndSet(greatestValueIndex, null,
+                    new MctsWideningNode<V>(cursor, values, factory,
+                            path.moves, path.priors));
+            kid = kids.get( greatestValueIndex );
+        }
+        return kid;
+    }
+
+
+    //--------------------------------------------------------------------
+    /*
+     * Checks moves in order of prior until allowed are legal, or all
+     *  are checked.  Each legal one is swapped in right after the last,
+     *  in the form returned by Move.apply, so it matches legalMoves().
+     *
+     * @param cursor position of this node, left as it was
+     * @return number of legal moves
+     */
+    private synchronized int widen(State cursor, int allowed)
+    {
+        int legal   = legalCount;
+        int checked = checkedCount;
+        while (legal < allowed && checked < acts.length) {
+            int move = acts[ checked ];
+            if (cursor.isLegalMove(move)) {
+                int undoable = Move.apply(move, cursor);
+                Move.unApply(undoable, cursor);
+
+                acts[ checked ] = acts[ legal ];
+                acts[ legal++ ] = undoable;
+            }
+            checked++;
+        }
+
+        checkedCount = checked;
+        legalCount   = legal;
+        return legal;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public MctsAction<V> bestMove(MctsSelector<V> selector) {
+        int open = legalCount;
+        if (open == 0) {
+            // no move is legal, or none was widened to yet
+            return (checkedCount == acts.length)
+                   ? null : new MctsAction<V>(-1, null);
+        }
+
+        int                 bestAct = -1;
+        MctsWideningNode<V> bestKid = null;
+        for (int i = 0; i < open; i++) {
+            MctsWideningNode<V> kid = kids.get(i);
+            if (kid != null && (bestKid == null ||
+                    selector.compare(
+                            bestKid.value, kid.value) < 0)) {
+                bestKid = kid;
+                bestAct = acts[i];
+            }
+        }
+        return new MctsAction<V>(bestAct, bestKid);
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public MctsNode<V> childMatching(int action) {
+        int open = legalCount;
+        for (int i = 0; i < open; i++) {
+            if (acts[i] == action) {
+                return kids.get(i);
+            }
+        }
+        return null;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public MctsNode<V> childMatchingState(long stateHash) {
+        int open = legalCount;
+        for (int i = 0; i < open; i++) {
+            MctsWideningNode<V> kid = kids.get(i);
+            if (kid != null && kid.stateHash == stateHash) {
+                return kid;
+            }
+        }
+        return null;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public int mostVisited(int[] topTwoVisits) {
+        topTwoVisits[0] = 0;
+        topTwoVisits[1] = 0;
+
+        int bestAct = -1;
+        int open    = legalCount;
+        for (int i = 0; i < open; i++) {
+            MctsWideningNode<V> kid = kids.get(i);
+            if (kid == null) continue;
+
+            int visits = kid.value.visits();
+            if (bestAct == -1 || visits > topTwoVisits[0]) {
+                topTwoVisits[1] = topTwoVisits[0];
+                topTwoVisits[0] = visits;
+                bestAct         = acts[i];
+            } else if (visits > topTwoVisits[1]) {
+                topTwoVisits[1] = visits;
+            }
+        }
+        return bestAct;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public boolean isSolved() {
+        return false;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public V value() {
+        return value;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public void addStates(LongCollection to) {}
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public String toString() {
+        return size()  + " | " +
+               depth() + " | " +
+               legalCount + " of " + acts.length + " open | " +
+               value.toString();
+    }
+
+    private int depth() {
+        int depth = 0;
+        int open  = legalCount;
+        for (int i = 0; i < open; i++) {
+            MctsWideningNode<V> kid = kids.get(i);
+            if (kid == null) continue;
+            depth = Math.max(depth, kid.depth() + 1);
+        }
+        return depth;
+    }
+
+    private int size() {
+        int size = 1;
+        int open = legalCount;
+        for (int i = 0; i < open; i++) {
+            MctsWideningNode<V> kid = kids.get(i);
+            if (kid == null) continue;
+            size += kid.size();
+        }
+        return size;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Per thread path of the current trajectory, grown as needed,
+     *  along with buffers to generate and order moves in.
+     */
+    private static class Trajectory
+    {
+        private final State              cursor = State.initial();
+        private final int[]              moves  =
+                new int[ Move.MAX_PER_PLY ];
+        private final double[]           priors =
+                new double[ Move.MAX_PER_PLY ];
+        private       MctsWideningNode[] nodes  =
+                new MctsWideningNode[ 64 ];
+        private       int                size;
+
+        public State start(State from) {
+            cursor.copyFrom( from );
+            size = 0;
+            return cursor;
+        }
+
+        public void add(MctsWideningNode<?> node) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            nodes[ size++ ] = node;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <V extends MctsValue<V>> MctsWideningNode<V> take(int i) {
+            MctsWideningNode<V> node = nodes[ i ];
+            nodes[ i ] = null;
+            return node;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package ao.chess.v2.engine.mcts.player;
 
 import ao.chess.v1.util.Io;
+import ao.chess.v2.data.FastRandom;
 import ao.chess.v2.engine.Player;
 import ao.chess.v2.engine.endgame.tablebase.DeepOracle;
 import ao.chess.v2.engine.endgame.tablebase.DeepOutcome;
@@ -8,17 +9,33 @@ import ao.chess.v2.engine.mcts.*;
 import ao.chess.v2.engine.mcts.message.MctsAction;
 import ao.chess.v2.state.Move;
 import ao.chess.v2.state.State;
-import ao.util.math.rand.Rand;
 import ao.util.time.Sched;
-import it.unimi.dsi.fastutil.longs.LongLists;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * User: alex
  * Date: 27-Sep-2009
  * Time: 12:52:02 PM
+ *
+ * When pondering, the subtree of the move that was played keeps being
+ *  searched on the opponent's time, until the next call to move or to
+ *  stopPondering.  If the opponent's reply is in it, the search goes on
+ *  from there, otherwise a new tree is started.
  */
 public class MctsPlayer implements Player
 {
+    //--------------------------------------------------------------------
+    // stop pondering at this many visits, if the opponent takes that long
+    private static final int MAX_PONDER_VISITS = 10 * 1000 * 1000;
+
+
     //--------------------------------------------------------------------
     private final MctsNode.Factory      nodes;
     private final MctsValue.Factory     values;
@@ -27,9 +44,15 @@ public class MctsPlayer implements Player
     private final MctsHeuristic         heuristics;
     private final MctsScheduler.Factory schedulers;
     private final TranspositionTable    transTable;
+    private final int                   threads;
+    private final ExecutorService       exec;
+
+    private final List<Future<Void>> ponders =
+            new ArrayList<Future<Void>>();
 
-    private State              prevState = null;
-    private MctsNode           prevPlay  = null;
+    private          MctsNode prevPlay  = null;
+    private volatile boolean  ponder;
+    private volatile boolean  pondering = false;
 
 
     //--------------------------------------------------------------------
@@ -41,6 +64,47 @@ public class MctsPlayer implements Player
                        MctsHeuristic         heuristicInstance,
                        TranspositionTable<V> transpositionTable,
                        MctsScheduler.Factory schedulerFactory)
+    {
+        this(nodeFactory, valueFactory, rollOutInstance,
+             selectorInstance, heuristicInstance, transpositionTable,
+             schedulerFactory, 1);
+    }
+
+    /**
+     * @param threadCount number of threads that search the tree at
+     *          once, each running its own trajectories
+     */
+    public <V extends MctsValue<V>>
+            MctsPlayer(MctsNode.Factory<V>   nodeFactory,
+                       MctsValue.Factory<V>  valueFactory,
+                       MctsRollout           rollOutInstance,
+                       MctsSelector<V>       selectorInstance,
+                       MctsHeuristic         heuristicInstance,
+                       TranspositionTable<V> transpositionTable,
+                       MctsScheduler.Factory schedulerFactory,
+                       int                   threadCount)
+    {
+        this(nodeFactory, valueFactory, rollOutInstance,
+             selectorInstance, heuristicInstance, transpositionTable,
+             schedulerFactory, threadCount, false);
+    }
+
+    /**
+     * @param threadCount number of threads that search the tree at
+     *          once, each running its own trajectories
+     * @param ponderOnOpponentsTime keep searching with threadCount
+     *          threads after returning a move, see setPondering
+     */
+    public <V extends MctsValue<V>>
+            MctsPlayer(MctsNode.Factory<V>   nodeFactory,
+                       MctsValue.Factory<V>  valueFactory,
+                       MctsRollout           rollOutInstance,
+                       MctsSelector<V>       selectorInstance,
+                       MctsHeuristic         heuristicInstance,
+                       TranspositionTable<V> transpositionTable,
+                       MctsScheduler.Factory schedulerFactory,
+                       int                   threadCount,
+                       boolean               ponderOnOpponentsTime)
     {
         nodes       = nodeFactory;
         values      = valueFactory;
@@ -49,6 +113,11 @@ public class MctsPlayer implements Player
         heuristics  = heuristicInstance;
         transTable  = transpositionTable;
         schedulers  = schedulerFactory;
+        threads     = threadCount;
+        ponder      = ponderOnOpponentsTime;
+
+        // threads are only started once tasks are submitted to them
+        exec        = newDaemonPool(threadCount);
     }
 
 
@@ -60,36 +129,41 @@ public class MctsPlayer implements Player
             int   timePerMove,
             int   timeIncrement)
     {
+        stopPondering();
+
         int oracleAction = oracleAction(position);
         if (oracleAction != -1) {
             Sched.sleep(2500);
             return oracleAction;
         }
 
+        // the reply is looked up by hash, and once the previous tree
+        //  is let go only the subtree below it is still reachable
         MctsNode root = null;
-        if (prevState != null && prevPlay != null) {
-            root = prevPlay.childMatching(
-                    action(prevState, position));
+        if (prevPlay != null) {
+            root     = prevPlay.childMatchingState(
+                    position.transpositionHashCode());
+            prevPlay = null;
         }
+        transTable.nextEpoch();
 
         if (root == null) {
             root = nodes.newNode(position, values);
-            transTable.retain( LongLists.EMPTY_LIST );
         } else {
             Io.display("Recycling " + root);
-
-//            LongSet states = new LongOpenHashSet();
-//            root.addStates(states);
-//            Io.display("Unique states " + states.size());
-//            transTable.retain(states);
         }
 
         MctsScheduler scheduler = schedulers.newScheduler(
                 timeLeft, timePerMove, timeIncrement);
+        scheduler.watch(root);
+
+        List<Future<Void>> helpers =
+                startHelpers(root, position, scheduler);
 
         int  count  = 0;
         long lastReport = System.currentTimeMillis();
-        while (scheduler.shouldContinue()) {
+        while (scheduler.shouldContinue() &&
+                    ! root.isSolved()) {
             root.runTrajectory(
                     position, values, rollouts, transTable, heuristics);
 
@@ -103,18 +177,147 @@ public class MctsPlayer implements Player
                 lastReport = System.currentTimeMillis();
             }
         }
+        awaitHelpers(helpers);
 
         MctsAction act = root.bestMove(sellectors);
         if (act == null) return -1; // game is done
+        if (act.node() == null) {
+            // not a single child was searched in time
+            return anyLegalMove(position);
+        }
 
         prevPlay = act.node();
-        prevState = position.prototype();
-        Move.apply(act.action(), prevState);
-
+        if (ponder && prevPlay != null) {
+            State afterAction = position.prototype();
+            Move.apply(act.action(), afterAction);
+            if (! isGameOver(afterAction)) {
+                startPondering(prevPlay, afterAction);
+            }
+        }
         return act.action();
     }
 
-    private int oracleAction(State from) {
+    /*
+     * The calling thread searches too, so only threads - 1 helpers
+     *  run trajectories through the same tree in the background.
+     */
+    private List<Future<Void>> startHelpers(
+            final MctsNode      root,
+            final State         position,
+            final MctsScheduler scheduler)
+    {
+        List<Future<Void>> helpers = new ArrayList<Future<Void>>();
+        for (int i = 1; i < threads; i++) {
+            helpers.add(exec.submit(new Callable<Void>() {
+                @SuppressWarnings("unchecked")
+                @Override public Void call() {
+                    while (scheduler.shouldContinue() &&
+                            ! root.isSolved()) {
+                        root.runTrajectory(position, values,
+                                rollouts, transTable, heuristics);
+                    }
+                    return null;
+                }
+            }));
+        }
+        return helpers;
+    }
+
+    //--------------------------------------------------------------------
+    private void startPondering(
+            final MctsNode root,
+            final State    position)
+    {
+        pondering = true;
+        for (int i = 0; i < threads; i++) {
+            ponders.add(exec.submit(new Callable<Void>() {
+                @SuppressWarnings("unchecked")
+                @Override public Void call() {
+                    while (pondering && ! root.isSolved() &&
+                            root.value().visits() < MAX_PONDER_VISITS) {
+                        root.runTrajectory(position, values,
+                                rollouts, transTable, heuristics);
+                    }
+                    return null;
+                }
+            }));
+        }
+    }
+
+    /*
+     * No reply is coming, so there is nothing to ponder on.
+     */
+    private static boolean isGameOver(State position)
+    {
+        return position.isDrawnBy50MovesRule() ||
+               position.legalMoves(new int[ Move.MAX_PER_PLY ]) <= 0;
+    }
+
+    /**
+     * @param ponderOnOpponentsTime whether to keep searching after
+     *          returning a move, from the next move on
+     */
+    public void setPondering(boolean ponderOnOpponentsTime)
+    {
+        ponder = ponderOnOpponentsTime;
+        if (! ponder) {
+            stopPondering();
+        }
+    }
+
+    /**
+     * Waits for any search started on the opponent's time to stop,
+     *  call once the game is over.
+     */
+    public void stopPondering()
+    {
+        pondering = false;
+        awaitHelpers(ponders);
+        ponders.clear();
+    }
+
+
+    //--------------------------------------------------------------------
+    private void awaitHelpers(List<Future<Void>> helpers)
+    {
+        try {
+            for (Future<Void> helper : helpers) {
+                helper.get();
+            }
+        } catch (Exception e) {
+            throw new Error( e );
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /*
+     * The threads don't keep the JVM running once the game is over.
+     */
+    static ExecutorService newDaemonPool(int threadCount) {
+        return Executors.newFixedThreadPool(threadCount,
+                new ThreadFactory() {
+                    @Override public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+
+    //--------------------------------------------------------------------
+    static int anyLegalMove(State position) {
+        int[] legalMoves = position.legalMoves();
+        if (legalMoves == null || legalMoves.length == 0) return -1;
+
+        return legalMoves[
+                FastRandom.local().nextInt(legalMoves.length) ];
+    }
+
+
+    //--------------------------------------------------------------------
+    static int oracleAction(State from) {
         if (from.pieceCount() > 5) return -1;
 
         boolean canDraw     = false;
@@ -133,7 +336,7 @@ public class MctsPlayer implements Player
                 if (bestOutcome <= 0 ||
                         bestOutcome > outcome.plyDistance() ||
                         (bestOutcome == outcome.plyDistance() &&
-                            Rand.nextBoolean())) {
+                            FastRandom.local().nextBoolean())) {
                     Io.display(outcome.outcome() + " in " +
                                 outcome.plyDistance() + " with " +
                                 Move.toString(legalMove));
@@ -153,22 +356,4 @@ public class MctsPlayer implements Player
         return (bestOutcome <= 0 && canDraw)
                 ? -1 : bestMove;
     }
-
-
-    //--------------------------------------------------------------------
-    private int action(State from, State to)
-    {
-        int[] moves  = new int[ Move.MAX_PER_PLY ];
-        int   nMoves = from.moves( moves );
-
-        for (int i = 0; i < nMoves; i++) {
-            int move = Move.apply(moves[i], from);
-            if (from.equals( to )) {
-                Move.unApply(move, from);
-                return move;
-            }
-            Move.unApply(move, from);
-        }
-        return -1;
-    }
 }
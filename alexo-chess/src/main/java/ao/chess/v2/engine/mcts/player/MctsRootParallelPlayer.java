@@ -0,0 +1,216 @@
+package ao.chess.v2.engine.mcts.player;
+
+import ao.chess.v1.util.Io;
+import ao.chess.v2.engine.Player;
+import ao.chess.v2.engine.mcts.*;
+import ao.chess.v2.engine.mcts.transposition.NullTransTable;
+import ao.chess.v2.state.Move;
+import ao.chess.v2.state.State;
+import ao.util.time.Sched;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Searches K independent trees in parallel, one per thread, and picks
+ *  the move by merging the statistics of their root children.
+ *
+ * Nothing inside a tree is shared: every tree has its own copy of the
+ *  position, and every thread its own rollout buffers and randomness,
+ *  so unlike MctsPlayer with several threads there is no contention
+ *  on the nodes near the root.
+ *
+ * Only the first tree is watched by the scheduler, it stands in for
+ *  the others when deciding to stop early or search for longer.
+ */
+public class MctsRootParallelPlayer implements Player
+{
+    //--------------------------------------------------------------------
+    private final MctsNode.Factory      nodes;
+    private final MctsValue.Factory     values;
+    private final MctsRollout           rollouts;
+    private final MctsSelector          sellectors;
+    private final MctsHeuristic         heuristics;
+    private final MctsScheduler.Factory schedulers;
+    private final int                   trees;
+    private final long                  mergeMillis;
+    private final ExecutorService       exec;
+
+    private MctsNode[] prevPlays = null;
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param treeCount number of trees, each searched by its own thread
+     * @param mergeEveryMillis how often to report the merged root
+     *          statistics during the search, 0 to only merge once
+     *          the search is over
+     */
+    public <V extends MctsValue<V>>
+            MctsRootParallelPlayer(
+                    MctsNode.Factory<V>   nodeFactory,
+                    MctsValue.Factory<V>  valueFactory,
+                    MctsRollout           rollOutInstance,
+                    MctsSelector<V>       selectorInstance,
+                    MctsHeuristic         heuristicInstance,
+                    MctsScheduler.Factory schedulerFactory,
+                    int                   treeCount,
+                    long                  mergeEveryMillis)
+    {
+        nodes       = nodeFactory;
+        values      = valueFactory;
+        rollouts    = rollOutInstance;
+        sellectors  = selectorInstance;
+        heuristics  = heuristicInstance;
+        schedulers  = schedulerFactory;
+        trees       = treeCount;
+        mergeMillis = mergeEveryMillis;
+        exec        = MctsPlayer.newDaemonPool(treeCount);
+    }
+
+
+    //--------------------------------------------------------------------
+    @SuppressWarnings("unchecked")
+    @Override public int move(
+            State position,
+            int   timeLeft,
+            int   timePerMove,
+            int   timeIncrement)
+    {
+        int oracleAction = MctsPlayer.oracleAction(position);
+        if (oracleAction != -1) {
+            Sched.sleep(2500);
+            return oracleAction;
+        }
+
+        long stateHash = position.transpositionHashCode();
+
+        MctsNode[] roots = new MctsNode[ trees ];
+        for (int i = 0; i < trees; i++) {
+            if (prevPlays != null && prevPlays[ i ] != null) {
+                roots[ i ] = prevPlays[ i ].childMatchingState( stateHash );
+            }
+            if (roots[ i ] == null) {
+                roots[ i ] = nodes.newNode(position, values);
+            }
+        }
+        prevPlays = null;
+
+        MctsScheduler scheduler = schedulers.newScheduler(
+                timeLeft, timePerMove, timeIncrement);
+        scheduler.watch(roots[ 0 ]);
+
+        List<Future<Void>> searches =
+                new ArrayList<Future<Void>>();
+        for (MctsNode root : roots) {
+            searches.add(exec.submit(
+                    search(root, position.prototype(), scheduler)));
+        }
+
+        if (mergeMillis > 0) {
+            while (scheduler.shouldContinue()) {
+                Sched.sleep( mergeMillis );
+
+                int best = mergedAction(
+                        roots, position, values, sellectors);
+                if (best != -1) {
+                    Io.display( "merged " + Move.toString(best) );
+                }
+            }
+        }
+        await(searches);
+
+        int act = mergedAction(roots, position, values, sellectors);
+        if (act == -1) {
+            // game is done, or not a single child was searched in time
+            return MctsPlayer.anyLegalMove(position);
+        }
+
+        prevPlays = new MctsNode[ trees ];
+        for (int i = 0; i < trees; i++) {
+            prevPlays[ i ] = roots[ i ].childMatching( act );
+        }
+
+        return act;
+    }
+
+
+    //--------------------------------------------------------------------
+    private Callable<Void> search(
+            final MctsNode      root,
+            final State         treeState,
+            final MctsScheduler scheduler)
+    {
+        return new Callable<Void>() {
+            @SuppressWarnings("unchecked")
+            @Override public Void call() {
+                TranspositionTable transTable = new NullTransTable();
+                while (scheduler.shouldContinue()) {
+                    root.runTrajectory(treeState, values,
+                            rollouts, transTable, heuristics);
+                }
+                return null;
+            }
+        };
+    }
+
+    private void await(List<Future<Void>> searches)
+    {
+        try {
+            for (Future<Void> search : searches) {
+                search.get();
+            }
+        } catch (Exception e) {
+            throw new Error( e );
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Merges the values of the children that the given roots reached
+     *  with each legal move, and picks the best move by them.
+     *
+     * @param roots trees searched from the given position
+     * @param position root position
+     * @param values creates the values to merge into
+     * @param selector compares merged values
+     * @return best move, or -1 if there are no legal moves or no
+     *          root reached any of them
+     */
+    public static <V extends MctsValue<V>> int mergedAction(
+            MctsNode<V>[]        roots,
+            State                position,
+            MctsValue.Factory<V> values,
+            MctsSelector<V>      selector)
+    {
+        int[] acts = position.legalMoves();
+        if (acts == null) return -1;
+
+        int bestAct   = -1;
+        V   bestValue = null;
+        for (int act : acts)
+        {
+            V merged = null;
+            for (MctsNode<V> root : roots) {
+                MctsNode<V> kid = root.childMatching( act );
+                if (kid == null) continue;
+
+                if (merged == null) {
+                    merged = values.newValue();
+                }
+                merged.merge( kid.value() );
+            }
+
+            if (merged != null && (bestValue == null ||
+                    selector.compare(bestValue, merged) < 0)) {
+                bestAct   = act;
+                bestValue = merged;
+            }
+        }
+        return bestAct;
+    }
+}
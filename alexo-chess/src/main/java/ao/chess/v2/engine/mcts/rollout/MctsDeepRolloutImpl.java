@@ -45,7 +45,8 @@ public class MctsDeepRolloutImpl
     {
         Colour fromPov = position.nextToAct();
         State  state   = position;
-        while (! state.isDrawnBy50MovesRule())
+        while (! state.isDrawnBy50MovesRule() &&
+               ! state.isDrawnByInsufficientMaterial())
         {
             int move = bestMove(state, heuristic);
             if (move == -1) {
@@ -106,53 +107,10 @@ public class MctsDeepRolloutImpl
     //--------------------------------------------------------------------
     private double computeMonteCarloPlayout(
             State fromState, MctsHeuristic heuristic) {
-        State   simState  = fromState.prototype();
-        int     nextCount = 0;
-        int[]   nextMoves = new int[ Move.MAX_PER_PLY ];
-        int[]   moves     = new int[ Move.MAX_PER_PLY ];
-        int     nMoves    = simState.moves(moves);
-        Outcome outcome   = Outcome.DRAW;
-
-        do
-        {
-            int     move;
-            boolean madeMove = false;
-
-//            int[] moveOrder = heuristic.orderMoves(
-//                    simState, moves, nMoves);
-//            for (int moveIndex : moveOrder)
-            for (int moveIndex = 0; moveIndex < nMoves; moveIndex++)
-            {
-                move = Move.apply(moves[ moveIndex ], simState);
-
-                // generate opponent moves
-                nextCount = simState.moves(nextMoves);
-
-                if (nextCount < 0) { // if leads to mate
-                    Move.unApply(move, simState);
-                } else {
-                    madeMove = true;
-                    break;
-                }
-            }
-            if (! madeMove) {
-                outcome = simState.isInCheck(simState.nextToAct())
-                          ? Outcome.loses(simState.nextToAct())
-                          : Outcome.DRAW;
-                break;
-            }
-
-            {
-                int[] tempMoves = nextMoves;
-                nextMoves       = moves;
-                moves           = tempMoves;
-                nMoves          = nextCount;
-            }
-        }
-        while (! simState.isDrawnBy50MovesRule());
+        MctsRolloutKernel kernel  = MctsRolloutKernel.local();
+        Outcome           outcome = kernel.playout(
+                fromState, MctsRolloutKernel.IN_ORDER);
 
-        return outcome == null
-               ? Double.NaN
-               : outcome.valueFor( simState.nextToAct() );
+        return outcome.valueFor( kernel.finalState().nextToAct() );
     }
-}
\ No newline at end of file
+}
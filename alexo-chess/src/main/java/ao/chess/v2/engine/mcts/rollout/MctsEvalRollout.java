@@ -0,0 +1,61 @@
+package ao.chess.v2.engine.mcts.rollout;
+
+import ao.chess.v2.engine.eval.PieceSquareEval;
+import ao.chess.v2.engine.mcts.MctsHeuristic;
+import ao.chess.v2.engine.mcts.MctsRollout;
+import ao.chess.v2.piece.Colour;
+import ao.chess.v2.state.Outcome;
+import ao.chess.v2.state.State;
+
+/**
+ * Plays uniformly random moves like MctsRolloutImpl, but only for a few
+ *  plies: once quietPlies are played it stops at the first position
+ *  that isn't right after a capture or in check, or at maxPlies in any
+ *  case, and scores where it stopped with PieceSquareEval.  Games that
+ *  end before that score as usual.
+ */
+public class MctsEvalRollout
+        implements MctsRollout
+{
+    //--------------------------------------------------------------------
+    private static final int DEFAULT_QUIET_PLIES = 8;
+    private static final int DEFAULT_MAX_PLIES   = 32;
+
+
+    //--------------------------------------------------------------------
+    private final int quietPlies;
+    private final int maxPlies;
+
+
+    //--------------------------------------------------------------------
+    public MctsEvalRollout()
+    {
+        this(DEFAULT_QUIET_PLIES, DEFAULT_MAX_PLIES);
+    }
+
+    /**
+     * @param quietPliesCutoff plies after which to stop and evaluate
+     *          once the position is quiet
+     * @param maxPliesCutoff plies after which to stop and evaluate
+     */
+    public MctsEvalRollout(int quietPliesCutoff, int maxPliesCutoff)
+    {
+        quietPlies = quietPliesCutoff;
+        maxPlies   = maxPliesCutoff;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override public double monteCarloPlayout(
+            State fromState, MctsHeuristic heuristic)
+    {
+        MctsRolloutKernel kernel = MctsRolloutKernel.local();
+        Colour            pov    = fromState.nextToAct();
+
+        Outcome outcome =
+                kernel.randomPlayout(fromState, quietPlies, maxPlies);
+        return (outcome == null)
+               ? PieceSquareEval.winProbability(kernel.finalState(), pov)
+               : outcome.valueFor( pov );
+    }
+}
@@ -0,0 +1,266 @@
+package ao.chess.v2.engine.mcts.rollout;
+
+import ao.chess.v2.data.FastRandom;
+import ao.chess.v2.data.MovePicker;
+import ao.chess.v2.state.Move;
+import ao.chess.v2.state.Outcome;
+import ao.chess.v2.state.State;
+
+/**
+ * Plays a game out from a position, on a scratch copy of it, until
+ *  mate, stalemate, the 50 move rule, material that can't mate, or a
+ *  pluggable termination rule.
+ *
+ * Every thread gets its own kernel (see local()), so after the first
+ *  playout no buffers or states are allocated, and randomness comes
+ *  from the thread's FastRandom.
+ */
+public class MctsRolloutKernel
+{
+    //--------------------------------------------------------------------
+    /**
+     * Picks the order in which the pseudo-legal moves of a ply are tried,
+     *  the first one that doesn't leave the king in check is played.
+     */
+    public static interface MovePolicy
+    {
+        /**
+         * @param fromState position
+         * @param moves pseudo-legal moves
+         * @param nMoves number of moves (at least one)
+         * @return indexes into moves in the order they should be tried,
+         *          or null to try them in the order they were generated
+         */
+        public int[] orderMoves(State fromState, int[] moves, int nMoves);
+    }
+
+    /**
+     * Checked at the start of every ply, before a move is picked.
+     */
+    public static interface Termination
+    {
+        /**
+         * @param state position
+         * @param moves pseudo-legal moves
+         * @param nMoves number of moves, -1 if the king can be captured
+         * @return outcome to end the playout with, or null to continue
+         */
+        public Outcome outcome(State state, int[] moves, int nMoves);
+    }
+
+
+    //--------------------------------------------------------------------
+    public static final MovePolicy RANDOM = new MovePolicy() {
+        @Override public int[] orderMoves(
+                State fromState, int[] moves, int nMoves) {
+            return MovePicker.pickRandom(nMoves);
+        }
+    };
+
+    public static final MovePolicy IN_ORDER = new MovePolicy() {
+        @Override public int[] orderMoves(
+                State fromState, int[] moves, int nMoves) {
+            return null;
+        }
+    };
+
+
+    //--------------------------------------------------------------------
+    private static final ThreadLocal<MctsRolloutKernel> LOCAL =
+            new ThreadLocal<MctsRolloutKernel>() {
+                @Override protected MctsRolloutKernel initialValue() {
+                    return new MctsRolloutKernel();
+                }
+            };
+
+    public static MctsRolloutKernel local()
+    {
+        return LOCAL.get();
+    }
+
+
+    //--------------------------------------------------------------------
+    // sampled moves to try before generating all legal ones
+    private static final int MAX_SAMPLES = 8;
+
+
+    //--------------------------------------------------------------------
+    private final State state;
+    private       int[] moves;
+    private       int[] nextMoves;
+
+
+    //--------------------------------------------------------------------
+    public MctsRolloutKernel()
+    {
+        state     = State.initial();
+        moves     = new int[ Move.MAX_PER_PLY ];
+        nextMoves = new int[ Move.MAX_PER_PLY ];
+    }
+
+
+    //--------------------------------------------------------------------
+    public Outcome playout(State fromState, MovePolicy policy)
+    {
+        return playout(fromState, policy, null);
+    }
+
+    /**
+     * @param fromState position to play out from, left untouched
+     * @param policy picks the move of every ply
+     * @param termination extra rule checked every ply, can be null
+     * @return outcome of the playout
+     */
+    public Outcome playout(
+            State       fromState,
+            MovePolicy  policy,
+            Termination termination)
+    {
+        state.copyFrom( fromState );
+
+        int nMoves = state.moves(moves);
+        do
+        {
+            if (termination != null) {
+                Outcome outcome =
+                        termination.outcome(state, moves, nMoves);
+                if (outcome != null) return outcome;
+            }
+
+            int nextCount = playMove(policy, nMoves);
+            if (nextCount < 0) {
+                return state.isInCheck(state.nextToAct())
+                       ? Outcome.loses(state.nextToAct())
+                       : Outcome.DRAW;
+            }
+
+            int[] tempMoves = nextMoves;
+            nextMoves       = moves;
+            moves           = tempMoves;
+            nMoves          = nextCount;
+        }
+        while (! state.isDrawnBy50MovesRule() &&
+               ! state.isDrawnByInsufficientMaterial());
+
+        return Outcome.DRAW;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @return number of pseudo-legal replies to the move that was
+     *          played, or -1 if there is no move that doesn't leave
+     *          the king in check
+     */
+    private int playMove(MovePolicy policy, int nMoves)
+    {
+        if (nMoves <= 0) return -1;
+
+        int[] order = policy.orderMoves(state, moves, nMoves);
+        for (int i = 0; i < nMoves; i++)
+        {
+            int moveIndex = (order == null ? i : order[ i ]);
+            int move      = Move.apply(moves[ moveIndex ], state);
+
+            // generate opponent moves
+            int nextCount = state.moves(nextMoves);
+
+            if (nextCount < 0) { // if leads to mate
+                Move.unApply(move, state);
+            } else {
+                return nextCount;
+            }
+        }
+        return -1;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Plays uniformly random legal moves, like playout with the RANDOM
+     *  policy, but draws them with State.sampleMove instead of
+     *  generating all moves of both sides every ply.
+     *
+     * @param fromState position to play out from, left untouched
+     * @return outcome of the playout
+     */
+    public Outcome randomPlayout(State fromState)
+    {
+        return randomPlayout(fromState, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like randomPlayout(State), but cut off: once quietPlies are played
+     *  it stops at the first position that isn't right after a capture
+     *  or in check, and it never plays more than maxPlies.
+     *
+     * @param fromState position to play out from, left untouched
+     * @param quietPlies plies after which to stop at a quiet position
+     * @param maxPlies plies after which to stop regardless
+     * @return outcome of the playout, or null if it was cut off, the
+     *          position it stopped in is then finalState()
+     */
+    public Outcome randomPlayout(
+            State fromState, int quietPlies, int maxPlies)
+    {
+        state.copyFrom( fromState );
+
+        FastRandom rand = FastRandom.local();
+
+        int     plies   = 0;
+        boolean capture = false;
+        do
+        {
+            // a capture has to be answered before it's quiet
+            if (plies >= maxPlies || (plies >= quietPlies && ! capture &&
+                    ! state.isInCheck(state.nextToAct()))) {
+                return null;
+            }
+
+            int move = sampleLegalMove(rand);
+            if (move == -1) {
+                // either no legal moves or too many illegal ones,
+                //  draw from all of them to be sure
+                int nMoves = state.legalMoves(moves);
+                if (nMoves <= 0) {
+                    return state.isInCheck(state.nextToAct())
+                           ? Outcome.loses(state.nextToAct())
+                           : Outcome.DRAW;
+                }
+                move = moves[ rand.nextInt(nMoves) ];
+            }
+            Move.apply(move, state);
+
+            capture = Move.isCapture(move);
+            plies++;
+        }
+        while (! state.isDrawnBy50MovesRule() &&
+               ! state.isDrawnByInsufficientMaterial());
+
+        return Outcome.DRAW;
+    }
+
+    private int sampleLegalMove(FastRandom rand)
+    {
+        for (int i = 0; i < MAX_SAMPLES; i++) {
+            int move = state.sampleMove(rand);
+            if (move == -1) return -1;
+
+            if (state.isLegalMove(move)) {
+                return move;
+            }
+        }
+        return -1;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @return position the last playout ended in, it is overwritten
+     *          by the next playout
+     */
+    public State finalState()
+    {
+        return state;
+    }
+}
@@ -0,0 +1,179 @@
+package ao.chess.v2.engine.mcts.scheduler;
+
+import ao.chess.v2.engine.mcts.MctsNode;
+import ao.chess.v2.engine.mcts.MctsScheduler;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Budgets the time of a move from the clock: an even share of the time
+ *  left over the moves expected before the next time control, plus the
+ *  increment.  Without a clock (timeLeft of zero) it spends timePerMove.
+ *
+ * With a watched root it stops before the budget once the runner-up
+ *  can't catch up with the most visited child, even if it got every
+ *  trajectory that fits in the rest of the budget.  Past the budget it
+ *  keeps searching, up to MAX_EXTENSION times the budget, for as long
+ *  as the most visited child keeps changing.
+ *
+ * The clock is only read every CHECK_INTERVAL calls to shouldContinue,
+ *  and only one thread at a time does the reading.  The first reading
+ *  is after CHECK_INTERVAL calls, so that a few trajectories are run
+ *  even when the clock is about to run out.
+ */
+public class MctsClockScheduler implements MctsScheduler
+{
+    //--------------------------------------------------------------------
+    private static final int    DEFAULT_MOVES_TO_GO = 30;
+    private static final int    CHECK_INTERVAL      = 64;
+
+    // kept in reserve for lag between the engine and the interface
+    private static final int    SAFETY_MILLIS       = 50;
+
+    // spent on a move however little time is left
+    private static final int    MIN_BUDGET_MILLIS   = 1;
+
+    // most of the time left that one move may take, with extensions
+    private static final double MAX_SHARE_OF_LEFT   = 0.25;
+    private static final double MAX_EXTENSION       = 2.0;
+
+    // no early stop before this share of the budget is spent, so
+    //  that the rate of trajectories is known
+    private static final double MIN_SHARE           = 0.1;
+
+    // the root is unstable if its most visited child changed within
+    //  this share of the budget
+    private static final double UNSTABLE_SHARE      = 0.2;
+
+
+    //--------------------------------------------------------------------
+    public static class Factory implements MctsScheduler.Factory {
+        private final int movesToGo;
+
+        public Factory() {
+            this(DEFAULT_MOVES_TO_GO);
+        }
+
+        /**
+         * @param movesToGoEstimate moves expected to be played with
+         *          the time that's left
+         */
+        public Factory(int movesToGoEstimate) {
+            movesToGo = movesToGoEstimate;
+        }
+
+        @Override
+        public MctsScheduler newScheduler(
+                int timeLeft, int timePerMove, int timeIncrement) {
+            if (timeLeft <= 0) {
+                return new MctsClockScheduler(timePerMove, timePerMove);
+            }
+
+            long usable  = Math.max(0, timeLeft - SAFETY_MILLIS);
+            long ceiling = (long) (usable * MAX_SHARE_OF_LEFT);
+            long budget  = Math.max(MIN_BUDGET_MILLIS, Math.min(ceiling,
+                    usable / movesToGo + timeIncrement));
+            return new MctsClockScheduler(budget, Math.min(ceiling,
+                    (long) (budget * MAX_EXTENSION)));
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    private final long          startNanos;
+    private final long          budgetNanos;
+    private final long          maxNanos;
+
+    private final AtomicBoolean checking;
+    private volatile boolean    done;
+
+    // racy, only paces the checks
+    private int                 calls;
+
+    // only touched by the checking thread
+    private MctsNode<?>         root;
+    private final int[]         topTwo;
+    private int                 startVisits;
+    private int                 bestAct;
+    private long                bestSince;
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param budgetMillis time to search for, give or take
+     * @param maxMillis time to never search past
+     */
+    public MctsClockScheduler(long budgetMillis, long maxMillis)
+    {
+        startNanos  = System.nanoTime();
+        budgetNanos = budgetMillis * 1000000;
+        maxNanos    = Math.max(budgetMillis, maxMillis) * 1000000;
+
+        checking    = new AtomicBoolean(false);
+        done        = false;
+        calls       = 0;
+
+        topTwo      = new int[2];
+        bestAct     = -1;
+        bestSince   = 0;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public void watch(MctsNode<?> root)
+    {
+        this.root   = root;
+        startVisits = root.value().visits();
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public boolean shouldContinue()
+    {
+        if (done) return false;
+        if (++calls % CHECK_INTERVAL != 0 ||
+                ! checking.compareAndSet(false, true)) {
+            return true;
+        }
+
+        try {
+            done = ! check(System.nanoTime() - startNanos);
+            return ! done;
+        } finally {
+            checking.set(false);
+        }
+    }
+
+    private boolean check(long elapsed)
+    {
+        if (elapsed >= maxNanos) return false;
+        if (root == null) return elapsed < budgetNanos;
+
+        int act = root.mostVisited(topTwo);
+        if (act != bestAct) {
+            bestAct   = act;
+            bestSince = elapsed;
+        }
+
+        if (elapsed >= budgetNanos) {
+            return elapsed - bestSince < budgetNanos * UNSTABLE_SHARE;
+        }
+        if (elapsed < budgetNanos * MIN_SHARE) return true;
+
+        double rate = (double) (root.value().visits() - startVisits)
+                        / elapsed;
+        double catchUp = rate * (budgetNanos - elapsed);
+        return topTwo[0] - topTwo[1] <= catchUp;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public String toString()
+    {
+        return ((System.nanoTime() - startNanos) / 1000000) + " of " +
+               (budgetNanos / 1000000) + " ms";
+    }
+}
@@ -1,5 +1,6 @@
 package ao.chess.v2.engine.mcts.scheduler;
 
+import ao.chess.v2.engine.mcts.MctsNode;
 import ao.chess.v2.engine.mcts.MctsScheduler;
 
 /**
@@ -38,4 +39,7 @@ public class MctsSchedulerImpl implements MctsScheduler
     public boolean shouldContinue() {
         return (System.currentTimeMillis() - startAt) < timePerMove;
     }
+
+    @Override
+    public void watch(MctsNode<?> root) {}
 }
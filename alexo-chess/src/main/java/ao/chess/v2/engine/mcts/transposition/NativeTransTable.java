@@ -8,35 +8,43 @@ import it.unimi.dsi.fastutil.longs.*;
  * User: aostrovsky
  * Date: 11-Oct-2009
  * Time: 12:52:02 PM
+ *
+ * Synchronized, so that it can be shared by threads searching the
+ *  same tree.
+ *
+ * Keeps two generations: entries of the previous one move to the
+ *  current one when used, the rest are dropped by the next epoch.
  */
 public class NativeTransTable<T extends MctsValue<T>>
         implements TranspositionTable<T>
 {
     //--------------------------------------------------------------------
     private final MctsValue.Factory<T> VALUES;
-    private final Long2ObjectMap<T>    TABLE;
+    private       Long2ObjectMap<T>    TABLE;
+    private       Long2ObjectMap<T>    PREVIOUS;
 
 
     //--------------------------------------------------------------------
     public NativeTransTable(
             MctsValue.Factory<T> values)
     {
-        VALUES = values;
-        TABLE  = new Long2ObjectOpenHashMap<T>();
+        VALUES   = values;
+        TABLE    = new Long2ObjectOpenHashMap<T>();
+        PREVIOUS = new Long2ObjectOpenHashMap<T>();
     }
 
 
     //--------------------------------------------------------------------
     @Override
-    public void update(long stateHash, double winRate) {
+    public synchronized void update(long stateHash, double winRate) {
         get(stateHash).update( winRate );
     }
 
 
     //--------------------------------------------------------------------
     @Override
-    public T get(long stateHash) {
-        T value = TABLE.get( stateHash );
+    public synchronized T get(long stateHash) {
+        T value = getOrNull( stateHash );
         if (value == null) {
             value = VALUES.newValue();
             TABLE.put( stateHash, value );
@@ -47,21 +55,55 @@ public class NativeTransTable<T extends MctsValue<T>>
 
     //--------------------------------------------------------------------
     @Override
-    public T getOrNull(long stateHash) {
-        return TABLE.get( stateHash );
+    public synchronized T getOrNull(long stateHash) {
+        T value = TABLE.get( stateHash );
+        if (value == null) {
+            value = PREVIOUS.remove( stateHash );
+            if (value != null) {
+                TABLE.put( stateHash, value );
+            }
+        }
+        return value;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public synchronized long packed(long stateHash) {
+        T value = getOrNull( stateHash );
+        return (value == null)
+               ? 0
+               : value.packedStats();
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public synchronized boolean contains(long stateHash) {
+        return TABLE.containsKey(stateHash) ||
+               PREVIOUS.containsKey(stateHash);
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public synchronized void retain(LongCollection stateHashes) {
+        TABLE   .keySet().retainAll( stateHashes );
+        PREVIOUS.keySet().retainAll( stateHashes );
     }
 
 
     //--------------------------------------------------------------------
     @Override
-    public boolean contains(long stateHash) {
-        return TABLE.containsKey(stateHash);
+    public boolean isTracking() {
+        return true;
     }
 
 
     //--------------------------------------------------------------------
     @Override
-    public void retain(LongCollection stateHashes) {
-        TABLE.keySet().retainAll( stateHashes );
+    public synchronized void nextEpoch() {
+        PREVIOUS = TABLE;
+        TABLE    = new Long2ObjectOpenHashMap<T>();
     }
 }
@@ -36,6 +36,13 @@ public class NullTransTable<T extends MctsValue<T>>
         return null;
     }
 
+
+    //--------------------------------------------------------------------
+    @Override
+    public long packed(long stateHash) {
+        return 0;
+    }
+
     
     //--------------------------------------------------------------------
     @Override
@@ -47,4 +54,16 @@ public class NullTransTable<T extends MctsValue<T>>
     //--------------------------------------------------------------------
     @Override
     public void retain(LongCollection stateHashes) {}
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public boolean isTracking() {
+        return false;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public void nextEpoch() {}
 }
\ No newline at end of file
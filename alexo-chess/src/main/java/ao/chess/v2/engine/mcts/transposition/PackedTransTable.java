@@ -0,0 +1,253 @@
+package ao.chess.v2.engine.mcts.transposition;
+
+import ao.chess.v2.engine.mcts.MctsValue;
+import ao.chess.v2.engine.mcts.TranspositionTable;
+import ao.chess.v2.engine.mcts.value.PackedStats;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size transposition table that keeps every entry as two longs,
+ *  the state hash and its visits and reward sum packed by PackedStats,
+ *  in one preallocated array.  Nothing is allocated after construction
+ *  except for the values handed out by get and getOrNull, which are
+ *  snapshots: updating them does not change the table.  Selection
+ *  reads entries with packed, which hands out the stats themselves.
+ *
+ * Entries live in buckets of SLOTS_PER_BUCKET, when a new hash finds its
+ *  bucket full it replaces the entry with the fewest visits, preferring
+ *  entries not updated since the last call to nextEpoch.
+ *
+ * Reads and updates are lock-free, so one table can be shared by all
+ *  threads searching a tree.  It is lossy by design: besides being
+ *  replaced, an entry can get an update meant for the hash that it just
+ *  replaced, if the two race.
+ */
+public class PackedTransTable<T extends MctsValue<T>>
+        implements TranspositionTable<T>
+{
+    //--------------------------------------------------------------------
+    private static final int  SLOTS_PER_BUCKET = 4;
+    private static final int  ENTRY_LONGS      = 2;
+    private static final int  BUCKET_LONGS     =
+            SLOTS_PER_BUCKET * ENTRY_LONGS;
+
+    private static final int  MAX_BUCKETS      =
+            Integer.highestOneBit(Integer.MAX_VALUE / BUCKET_LONGS);
+
+    private static final long EMPTY            = 0;
+
+    // a state whose hash is EMPTY is kept under this key instead
+    private static final long EMPTY_HASH_KEY   = 0x9E3779B97F4A7C15L;
+
+
+    //--------------------------------------------------------------------
+    private final MctsValue.Factory<T> values;
+    private final AtomicLongArray      entries;
+    private final int                  bucketMask;
+
+    // generation of the last update of every entry, only a hint for
+    //  replacement so plain reads and writes are enough
+    private final int[]                stamps;
+    private volatile int               epoch;
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param values makes the values handed out by get and getOrNull
+     * @param megabytes size of the table, rounded down to a power of two
+     */
+    public PackedTransTable(
+            MctsValue.Factory<T> values,
+            int                  megabytes)
+    {
+        long bytes   = megabytes * (1L << 20);
+        long buckets = Math.max(1, bytes / (BUCKET_LONGS * 8));
+
+        int bucketCount =
+                (int) Math.min(Long.highestOneBit(buckets), MAX_BUCKETS);
+
+        this.values = values;
+        entries     = new AtomicLongArray(bucketCount * BUCKET_LONGS);
+        bucketMask  = bucketCount - 1;
+        stamps      = new int[ bucketCount * SLOTS_PER_BUCKET ];
+        epoch       = 0;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public void update(long stateHash, double winRate)
+    {
+        long key   = key(stateHash);
+        long delta = PackedStats.visit(winRate);
+        int  start = bucketStart(key);
+        int  now   = epoch;
+
+        while (true)
+        {
+            int  victim         = -1;
+            long victimKey      = EMPTY;
+            long victimStats    = 0;
+            long victimPriority = Long.MAX_VALUE;
+
+            for (int i = start; i < start + BUCKET_LONGS; i += ENTRY_LONGS)
+            {
+                long slotKey = entries.get(i);
+                if (slotKey == key) {
+                    entries.addAndGet(i + 1, delta);
+                    stamps[ i / ENTRY_LONGS ] = now;
+                    return;
+                }
+
+                long slotStats    = entries.get(i + 1);
+                long slotPriority = priority(slotKey, slotStats,
+                        stamps[ i / ENTRY_LONGS ] == now);
+                if (slotPriority < victimPriority) {
+                    victim         = i;
+                    victimKey      = slotKey;
+                    victimStats    = slotStats;
+                    victimPriority = slotPriority;
+                }
+            }
+
+            // stats only grow, so taking away what was read before the
+            //  key changed hands never takes away more than was there
+            if (entries.compareAndSet(victim, victimKey, key)) {
+                entries.addAndGet(victim + 1, delta - victimStats);
+                stamps[ victim / ENTRY_LONGS ] = now;
+                return;
+            }
+        }
+    }
+
+    /*
+     * Lowest first: empty entries, then stale ones, then current ones,
+     *  each by visits.
+     */
+    private static long priority(
+            long key, long stats, boolean current)
+    {
+        if (key == EMPTY) return -1;
+
+        long visits = PackedStats.visits(stats);
+        return current
+               ? visits + PackedStats.VISIT
+               : visits;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public T get(long stateHash)
+    {
+        T value = getOrNull(stateHash);
+        return (value == null)
+               ? values.newValue()
+               : value;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public T getOrNull(long stateHash)
+    {
+        long stats = packed(stateHash);
+        if (stats == 0) return null;
+
+        return values.newValue(
+                PackedStats.visits(stats),
+                PackedStats.sum(stats));
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public long packed(long stateHash)
+    {
+        long key = key(stateHash);
+        int  i   = indexOf(key);
+        if (i == -1) return 0;
+
+        long stats = entries.get(i + 1);
+        if (entries.get(i) != key) {
+            // replaced while reading
+            return 0;
+        }
+        return stats;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public boolean contains(long stateHash)
+    {
+        return indexOf(key(stateHash)) != -1;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Not meant to run while the table is being updated.
+     */
+    @Override
+    public void retain(LongCollection stateHashes)
+    {
+        boolean retainEmptyHash = stateHashes.contains(EMPTY);
+
+        for (int i = 0; i < entries.length(); i += ENTRY_LONGS)
+        {
+            long key = entries.get(i);
+            if (key == EMPTY ||
+                    stateHashes.contains(key) ||
+                    (key == EMPTY_HASH_KEY && retainEmptyHash)) {
+                continue;
+            }
+
+            entries.set(i,     EMPTY);
+            entries.set(i + 1, 0);
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public boolean isTracking()
+    {
+        return true;
+    }
+
+
+    //--------------------------------------------------------------------
+    @Override
+    public void nextEpoch()
+    {
+        epoch++;
+    }
+
+
+    //--------------------------------------------------------------------
+    private int indexOf(long key)
+    {
+        int start = bucketStart(key);
+        for (int i = start; i < start + BUCKET_LONGS; i += ENTRY_LONGS) {
+            if (entries.get(i) == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int bucketStart(long key)
+    {
+        return ((int) (key ^ (key >>> 32)) & bucketMask) * BUCKET_LONGS;
+    }
+
+    private static long key(long stateHash)
+    {
+        return (stateHash == EMPTY)
+               ? EMPTY_HASH_KEY
+               : stateHash;
+    }
+}
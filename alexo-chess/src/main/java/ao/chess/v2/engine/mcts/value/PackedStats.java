@@ -0,0 +1,71 @@
+package ao.chess.v2.engine.mcts.value;
+
+/**
+ * Visit count and reward sum packed into one long, so that values can
+ *  read and update both with a single atomic operation.
+ *
+ * The visits take the top VISIT_BITS bits, the sum takes the rest in
+ *  fixed point with SUM_SCALE steps per unit of reward.  Both only
+ *  ever grow, so a visit is added with a plain getAndAdd.
+ */
+public final class PackedStats
+{
+    //--------------------------------------------------------------------
+    private PackedStats() {}
+
+
+    //--------------------------------------------------------------------
+    public  static final int    VISIT_BITS = 28;
+    private static final int    SUM_BITS   = 64 - VISIT_BITS;
+    private static final double SUM_SCALE  = 256;
+
+    public  static final long   VISIT      = 1L << SUM_BITS;
+    private static final long   SUM_MASK   = VISIT - 1;
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param winRate [0, 1]
+     * @return delta that adds one visit with the given reward
+     */
+    public static long visit(double winRate)
+    {
+        return VISIT + reward(winRate);
+    }
+
+    /**
+     * @param winRate [0, 1]
+     * @return delta that adds the given reward without a visit
+     */
+    public static long reward(double winRate)
+    {
+        return Math.round(winRate * SUM_SCALE);
+    }
+
+    /**
+     * @param visits number of visits
+     * @param sum sum of their rewards, each in [0, 1]
+     * @return packed visits and sum
+     */
+    public static long pack(int visits, double sum)
+    {
+        return visits * VISIT + reward(sum);
+    }
+
+
+    //--------------------------------------------------------------------
+    public static int visits(long packed)
+    {
+        return (int) (packed >>> SUM_BITS);
+    }
+
+    public static double sum(long packed)
+    {
+        return (packed & SUM_MASK) / SUM_SCALE;
+    }
+
+    public static double scaled(long fixedPoint)
+    {
+        return fixedPoint / SUM_SCALE;
+    }
+}
@@ -3,6 +3,8 @@ package ao.chess.v2.engine.mcts.value;
 import ao.chess.v2.engine.mcts.MctsSelector;
 import ao.chess.v2.engine.mcts.MctsValue;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * User: aostrovsky
  * Date: 30-Sep-2009
@@ -16,66 +18,127 @@ public class Ucb1TunedValue implements MctsValue<Ucb1TunedValue>
         @Override public Ucb1TunedValue newValue() {
             return new Ucb1TunedValue();
         }
+
+        @Override public Ucb1TunedValue newValue(int visits, double sum) {
+            return new Ucb1TunedValue(visits, sum);
+        }
     }
 
 
     //--------------------------------------------------------------------
-    private double sum;
-    private double sumSquares;
-    private int    visits;
+    private static final AtomicLongFieldUpdater<Ucb1TunedValue> STATS =
+            AtomicLongFieldUpdater.newUpdater(
+                    Ucb1TunedValue.class, "stats");
+
+    private static final AtomicLongFieldUpdater<Ucb1TunedValue> SQUARES =
+            AtomicLongFieldUpdater.newUpdater(
+                    Ucb1TunedValue.class, "sumSquares");
+
+
+    //--------------------------------------------------------------------
+    // visits and sum, see PackedStats
+    private volatile long stats;
+
+    // fixed point, added after stats so can lag behind by a playout
+    private volatile long sumSquares;
 
 
     //--------------------------------------------------------------------
     public Ucb1TunedValue()
     {
-        sum        = 0;
+        stats      = 0;
         sumSquares = 0;
-        visits     = 0;
+    }
+
+    /**
+     * The sum of squares is not known, it is taken to be the sum,
+     *  which is exact for rewards of 0 and 1 and an upper bound
+     *  for the rest.
+     */
+    public Ucb1TunedValue(int visits, double sum)
+    {
+        stats      = PackedStats.pack(visits, sum);
+        sumSquares = PackedStats.reward(sum);
     }
 
 
     //--------------------------------------------------------------------
     @Override public void update(double winRate)
     {
-        sum        += winRate;
-        sumSquares += winRate * winRate;
+        STATS  .addAndGet(this, PackedStats.visit (winRate));
+        SQUARES.addAndGet(this, PackedStats.reward(winRate * winRate));
+    }
 
-        visits++;
+    @Override public int addVirtualLoss() {
+        return PackedStats.visits(
+                STATS.getAndAdd(this, PackedStats.VISIT));
+    }
+
+    @Override public void resolveVirtualLoss(double winRate) {
+        STATS  .addAndGet(this, PackedStats.reward(winRate));
+        SQUARES.addAndGet(this, PackedStats.reward(winRate * winRate));
+    }
+
+    @Override public int visits() {
+        return PackedStats.visits(stats);
+    }
+
+    @Override public long packedStats() {
+        return stats;
+    }
+
+    @Override public void merge(Ucb1TunedValue other) {
+        STATS  .addAndGet(this, other.stats);
+        SQUARES.addAndGet(this, other.sumSquares);
     }
 
 
     //--------------------------------------------------------------------
     @Override public double confidenceBound(
-            Ucb1TunedValue transpositionValue,
-            Ucb1TunedValue withRespectToParent)
+            long           transpositionStats,
+            int            parentVisits,
+            double         logParentVisits)
+    {
+        return confidenceBound(stats, sumSquares, logParentVisits);
+    }
+
+    /**
+     * @param stats visits and sum, see PackedStats
+     * @param sumSquares fixed point sum of squared rewards
+     * @param logTrials log of the visits of the parent, see UcbMath
+     * @return UCB1-Tuned bound
+     */
+    public static double confidenceBound(
+            long stats, long sumSquares, double logTrials)
     {
-        int    trials = withRespectToParent.visits;
-        double mean   = mean();
+        int    visits = PackedStats.visits(stats);
+        double mean   = PackedStats.sum(stats) / visits;
         return mean
                 + Math.sqrt(
-                    (Math.log(trials) / visits)
-                    * Math.min(0.25,
-                            varianceBound(mean, trials)));
+                    (logTrials / visits)
+                    * Math.min(0.25, varianceBound(
+                            sumSquares, mean, visits, logTrials)));
     }
 
     private double mean() {
-        return sum / visits;
+        long packed = stats;
+        return PackedStats.sum(packed) / PackedStats.visits(packed);
     }
 
 
     //--------------------------------------------------------------------
-    private double varianceBound(
-            double mean, int turn) {
+    private static double varianceBound(
+            long sumSquares, double mean, int visits, double logTurn) {
 
-        return sumSquares / visits
+        return PackedStats.scaled(sumSquares) / visits
                 - mean * mean
-                + Math.sqrt((2 * Math.log(turn)) / visits);
+                + Math.sqrt((2 * logTurn) / visits);
     }
 
 
     //--------------------------------------------------------------------
     @Override public String toString() {
-        return visits + " (" + (sum / visits) + ")";
+        return visits() + " (" + mean() + ")";
     }
 
 
@@ -84,7 +147,7 @@ public class Ucb1TunedValue implements MctsValue<Ucb1TunedValue>
             implements MctsSelector<Ucb1TunedValue> {
         @Override public int compare(
                 Ucb1TunedValue a, Ucb1TunedValue b) {
-            return a.visits - b.visits;
+            return a.visits() - b.visits();
         }
     }
 
@@ -1,8 +1,11 @@
 package ao.chess.v2.engine.mcts.value;
 
+import ao.chess.v2.data.FastRandom;
 import ao.chess.v2.engine.mcts.MctsSelector;
 import ao.chess.v2.engine.mcts.MctsValue;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * User: alex
  * Date: 27-Sep-2009
@@ -16,52 +19,97 @@ public class Ucb1Value implements MctsValue<Ucb1Value>
         @Override public Ucb1Value newValue() {
             return new Ucb1Value();
         }
+
+        @Override public Ucb1Value newValue(int visits, double sum) {
+            return new Ucb1Value(visits, sum);
+        }
     }
 
 
     //--------------------------------------------------------------------
-    private int    visits;
-    private double sum;
+    private static final AtomicLongFieldUpdater<Ucb1Value> STATS =
+            AtomicLongFieldUpdater.newUpdater(
+                    Ucb1Value.class, "stats");
+
+
+    //--------------------------------------------------------------------
+    // visits and sum, see PackedStats
+    private volatile long stats;
 
 
     //--------------------------------------------------------------------
     public Ucb1Value()
     {
-        visits = 0;
-        sum    = 0;
+        stats = 0;
+    }
+
+    public Ucb1Value(int visits, double sum)
+    {
+        stats = PackedStats.pack(visits, sum);
     }
 
 
     //--------------------------------------------------------------------
     private double averageReward() {
-        return sum / visits;
+        long packed = stats;
+        return PackedStats.sum(packed) / PackedStats.visits(packed);
     }
 
 
     //--------------------------------------------------------------------
     @Override
     public void update(double winRate) {
-        visits++;
-        sum += winRate;
+        STATS.addAndGet(this, PackedStats.visit(winRate));
+    }
+
+    @Override public int addVirtualLoss() {
+        return PackedStats.visits(
+                STATS.getAndAdd(this, PackedStats.VISIT));
+    }
+
+    @Override public void resolveVirtualLoss(double winRate) {
+        STATS.addAndGet(this, PackedStats.reward(winRate));
+    }
+
+    @Override public int visits() {
+        return PackedStats.visits(stats);
+    }
+
+    @Override public long packedStats() {
+        return stats;
+    }
+
+    @Override public void merge(Ucb1Value other) {
+        STATS.addAndGet(this, other.stats);
     }
 
 
     //--------------------------------------------------------------------
     @Override
     public double confidenceBound(
-            Ucb1Value transpositionValue,
-            Ucb1Value withRespectToParent) {
-        return averageReward() +
+            long      transpositionStats,
+            int       parentVisits,
+            double    logParentVisits) {
+        return confidenceBound(stats, logParentVisits);
+    }
+
+    /**
+     * @param stats visits and sum, see PackedStats
+     * @param logTrials log of the visits of the parent, see UcbMath
+     * @return UCB1 bound
+     */
+    public static double confidenceBound(long stats, double logTrials) {
+        int visits = PackedStats.visits(stats);
+        return PackedStats.sum(stats) / visits +
                (visits == 0
-               ? 1000 + Math.random()
-               : Math.sqrt((2 * Math.log(
-                       withRespectToParent.visits)) /visits));
+               ? 1000 + FastRandom.local().nextDouble()
+               : Math.sqrt((2 * logTrials) / visits));
     }
 
 
     //--------------------------------------------------------------------
     @Override public String toString() {
-        return visits + " (" + averageReward() + ")";
+        return visits() + " (" + averageReward() + ")";
     }
 
 
@@ -69,7 +117,7 @@ public class Ucb1Value implements MctsValue<Ucb1Value>
     public static class VisitSelector
             implements MctsSelector<Ucb1Value> {
         @Override public int compare(Ucb1Value a, Ucb1Value b) {
-            return a.visits - b.visits;
+            return a.visits() - b.visits();
         }
     }
 
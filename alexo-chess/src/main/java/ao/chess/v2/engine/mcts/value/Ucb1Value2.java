@@ -3,6 +3,8 @@ package ao.chess.v2.engine.mcts.value;
 import ao.chess.v2.engine.mcts.MctsSelector;
 import ao.chess.v2.engine.mcts.MctsValue;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * User: alex
  * Date: 27-Sep-2009
@@ -16,51 +18,90 @@ public class Ucb1Value2 implements MctsValue<Ucb1Value2>
         @Override public Ucb1Value2 newValue() {
             return new Ucb1Value2();
         }
+
+        @Override public Ucb1Value2 newValue(int visits, double sum) {
+            return new Ucb1Value2(visits, sum);
+        }
     }
 
 
     //--------------------------------------------------------------------
-    private int    visits;
-    private double sum;
+    private static final AtomicLongFieldUpdater<Ucb1Value2> STATS =
+            AtomicLongFieldUpdater.newUpdater(
+                    Ucb1Value2.class, "stats");
+
+
+    //--------------------------------------------------------------------
+    // visits and sum, see PackedStats
+    private volatile long stats;
 
 
     //--------------------------------------------------------------------
     public Ucb1Value2()
     {
-        visits = 0;
-        sum    = 0;
+        stats = 0;
+    }
+
+    public Ucb1Value2(int visits, double sum)
+    {
+        stats = PackedStats.pack(visits, sum);
     }
 
 
     //--------------------------------------------------------------------
     private double averageReward() {
-        return sum / visits;
+        long packed = stats;
+        return PackedStats.sum(packed) / PackedStats.visits(packed);
     }
 
 
     //--------------------------------------------------------------------
     @Override
     public void update(double winRate) {
-        visits++;
-        sum += winRate;
+        STATS.addAndGet(this, PackedStats.visit(winRate));
+    }
+
+    @Override public int addVirtualLoss() {
+        return PackedStats.visits(
+                STATS.getAndAdd(this, PackedStats.VISIT));
+    }
+
+    @Override public void resolveVirtualLoss(double winRate) {
+        STATS.addAndGet(this, PackedStats.reward(winRate));
+    }
+
+    @Override public int visits() {
+        return PackedStats.visits(stats);
+    }
+
+    @Override public long packedStats() {
+        return stats;
+    }
+
+    @Override public void merge(Ucb1Value2 other) {
+        STATS.addAndGet(this, other.stats);
     }
 
 
     //--------------------------------------------------------------------
     @Override
     public double confidenceBound(
-            Ucb1Value2 transpositionValue,
-            Ucb1Value2 withRespectToParent) {
-        return transpositionValue.averageReward() +
+            long       transpositionStats,
+            int        parentVisits,
+            double     logParentVisits) {
+        long packed   = stats;
+        int  visits   = PackedStats.visits(packed);
+        long averaged = (PackedStats.visits(transpositionStats) == 0)
+                        ? packed : transpositionStats;
+        return PackedStats.sum(averaged) / PackedStats.visits(averaged) +
                (visits == 0 ? 0 :
-                  Math.sqrt((2 * Math.log(
-                          withRespectToParent.visits)) / visits));
+                  Math.sqrt((2 * logParentVisits) / visits));
     }
 
 
     //--------------------------------------------------------------------
     @Override public String toString() {
-        return visits + " (" + averageReward() + ")";
+        return visits() + " (" + averageReward() + ")";
     }
 
 
@@ -68,7 +109,7 @@ public class Ucb1Value2 implements MctsValue<Ucb1Value2>
     public static class VisitSelector
             implements MctsSelector<Ucb1Value2> {
         @Override public int compare(Ucb1Value2 a, Ucb1Value2 b) {
-            return a.visits - b.visits;
+            return a.visits() - b.visits();
         }
     }
 
@@ -0,0 +1,45 @@
+package ao.chess.v2.engine.mcts.value;
+
+/**
+ * Natural logs of visit counts, for the exploration terms of the UCB
+ *  family of bounds.  The log of the parent's visits is the same for
+ *  all of its children, so nodes work it out once per descent and pass
+ *  it to MctsValue.confidenceBound; counts below TABLE_SIZE, which is
+ *  where most of the nodes of a tree are, are then a table lookup.
+ *
+ * Square roots are left to Math.sqrt, which the JIT compiles to a
+ *  single instruction that no table load would beat.
+ */
+public final class UcbMath
+{
+    //--------------------------------------------------------------------
+    private UcbMath() {}
+
+
+    //--------------------------------------------------------------------
+    public  static final int      TABLE_SIZE = 4096;
+
+    private static final double[] LOGS       = new double[ TABLE_SIZE ];
+
+    static
+    {
+        // log(0) is taken to be 0 rather than -infinity, as with a
+        //  parent that has no visits every child is unvisited anyway
+        for (int i = 1; i < TABLE_SIZE; i++) {
+            LOGS[ i ] = Math.log(i);
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param visits number of visits, not negative
+     * @return natural log of visits, or 0 for none
+     */
+    public static double log(int visits)
+    {
+        return (visits < TABLE_SIZE)
+               ? LOGS[ visits ]
+               : Math.log(visits);
+    }
+}
@@ -3,6 +3,8 @@ package ao.chess.v2.engine.mcts.value;
 import ao.chess.v2.engine.mcts.MctsSelector;
 import ao.chess.v2.engine.mcts.MctsValue;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * User: aostrovsky
  * Date: 3-Oct-2009
@@ -16,47 +18,86 @@ public class UcbTuned2Value implements MctsValue<UcbTuned2Value>
         @Override public UcbTuned2Value newValue() {
             return new UcbTuned2Value();
         }
+
+        @Override public UcbTuned2Value newValue(int visits, double sum) {
+            return new UcbTuned2Value(visits, sum);
+        }
     }
 
 
     //--------------------------------------------------------------------
-    private double sum;
-    private int    visits;
+    private static final AtomicLongFieldUpdater<UcbTuned2Value> STATS =
+            AtomicLongFieldUpdater.newUpdater(
+                    UcbTuned2Value.class, "stats");
+
+
+    //--------------------------------------------------------------------
+    // visits and sum, see PackedStats
+    private volatile long stats;
 
 
     //--------------------------------------------------------------------
     public UcbTuned2Value()
     {
-        sum    = 0;
-        visits = 0;
+        stats = 0;
+    }
+
+    public UcbTuned2Value(int visits, double sum)
+    {
+        stats = PackedStats.pack(visits, sum);
     }
 
 
     //--------------------------------------------------------------------
     @Override public void update(double winRate)
     {
-        sum += winRate;
-        visits++;
+        STATS.addAndGet(this, PackedStats.visit(winRate));
+    }
+
+    @Override public int addVirtualLoss() {
+        return PackedStats.visits(
+                STATS.getAndAdd(this, PackedStats.VISIT));
+    }
+
+    @Override public void resolveVirtualLoss(double winRate) {
+        STATS.addAndGet(this, PackedStats.reward(winRate));
+    }
+
+    @Override public int visits() {
+        return PackedStats.visits(stats);
+    }
+
+    @Override public long packedStats() {
+        return stats;
+    }
+
+    @Override public void merge(UcbTuned2Value other) {
+        STATS.addAndGet(this, other.stats);
     }
 
 
     //--------------------------------------------------------------------
     @Override public double confidenceBound(
-            UcbTuned2Value transpositionValue,
-            UcbTuned2Value withRespectToParent)
+            long           transpositionStats,
+            int            parentVisits,
+            double         logParentVisits)
     {
-        double mean   = sum / visits;
+        long   packed = stats;
+        int    visits = PackedStats.visits(packed);
+        double mean   = PackedStats.sum(packed) / visits;
         double v      = Math.max(0.001, mean * (1.0 - mean));
-        int    parent = withRespectToParent.visits;
 
-        return mean + Math.sqrt(v * Math.log(parent) / visits) +
-                Math.log(parent) / visits;
+        return mean + Math.sqrt(v * logParentVisits / visits) +
+                logParentVisits / visits;
     }
 
 
     //--------------------------------------------------------------------
     @Override public String toString() {
-        return visits + " (" + (sum / visits) + ")";
+        long packed = stats;
+        return PackedStats.visits(packed) + " (" +
+                (PackedStats.sum(packed) /
+                    PackedStats.visits(packed)) + ")";
     }
 
 
@@ -65,7 +106,7 @@ public class UcbTuned2Value implements MctsValue<UcbTuned2Value>
             implements MctsSelector<UcbTuned2Value> {
         @Override public int compare(
                 UcbTuned2Value a, UcbTuned2Value b) {
-            return a.visits - b.visits;
+            return a.visits() - b.visits();
         }
     }
 }
\ No newline at end of file
@@ -3,6 +3,8 @@ package ao.chess.v2.engine.mcts.value;
 import ao.chess.v2.engine.mcts.MctsSelector;
 import ao.chess.v2.engine.mcts.MctsValue;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * User: aostrovsky
  * Date: 3-Oct-2009
@@ -16,46 +18,85 @@ public class UcbTunedValue implements MctsValue<UcbTunedValue>
         @Override public UcbTunedValue newValue() {
             return new UcbTunedValue();
         }
+
+        @Override public UcbTunedValue newValue(int visits, double sum) {
+            return new UcbTunedValue(visits, sum);
+        }
     }
 
 
     //--------------------------------------------------------------------
-    private double sum;
-    private int    visits;
+    private static final AtomicLongFieldUpdater<UcbTunedValue> STATS =
+            AtomicLongFieldUpdater.newUpdater(
+                    UcbTunedValue.class, "stats");
+
+
+    //--------------------------------------------------------------------
+    // visits and sum, see PackedStats
+    private volatile long stats;
 
 
     //--------------------------------------------------------------------
     public UcbTunedValue()
     {
-        sum    = 0;
-        visits = 0;
+        stats = 0;
+    }
+
+    public UcbTunedValue(int visits, double sum)
+    {
+        stats = PackedStats.pack(visits, sum);
     }
 
 
     //--------------------------------------------------------------------
     @Override public void update(double winRate)
     {
-        sum += winRate;
-        visits++;
+        STATS.addAndGet(this, PackedStats.visit(winRate));
+    }
+
+    @Override public int addVirtualLoss() {
+        return PackedStats.visits(
+                STATS.getAndAdd(this, PackedStats.VISIT));
+    }
+
+    @Override public void resolveVirtualLoss(double winRate) {
+        STATS.addAndGet(this, PackedStats.reward(winRate));
+    }
+
+    @Override public int visits() {
+        return PackedStats.visits(stats);
+    }
+
+    @Override public long packedStats() {
+        return stats;
+    }
+
+    @Override public void merge(UcbTunedValue other) {
+        STATS.addAndGet(this, other.stats);
     }
 
 
     //--------------------------------------------------------------------
     @Override public double confidenceBound(
-            UcbTunedValue transpositionValue,
-            UcbTunedValue withRespectToParent)
+            long          transpositionStats,
+            int           parentVisits,
+            double        logParentVisits)
     {
-        double mean   = sum / visits;
+        long   packed = stats;
+        int    visits = PackedStats.visits(packed);
+        double mean   = PackedStats.sum(packed) / visits;
         double v      = Math.max(0.001, mean * (1.0 - mean));
-        int    parent = withRespectToParent.visits;
 
-        return mean + Math.sqrt(v * Math.log(parent) / visits);
+        return mean + Math.sqrt(v * logParentVisits / visits);
     }
 
 
     //--------------------------------------------------------------------
     @Override public String toString() {
-        return visits + " (" + (sum / visits) + ")";
+        long packed = stats;
+        return PackedStats.visits(packed) + " (" +
+                (PackedStats.sum(packed) /
+                    PackedStats.visits(packed)) + ")";
     }
 
 
@@ -64,7 +105,7 @@ public class UcbTunedValue implements MctsValue<UcbTunedValue>
             implements MctsSelector<UcbTunedValue> {
         @Override public int compare(
                 UcbTunedValue a, UcbTunedValue b) {
-            return a.visits - b.visits;
+            return a.visits() - b.visits();
         }
     }
 }
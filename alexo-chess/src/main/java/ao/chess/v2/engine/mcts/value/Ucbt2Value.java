@@ -3,6 +3,8 @@ package ao.chess.v2.engine.mcts.value;
 import ao.chess.v2.engine.mcts.MctsSelector;
 import ao.chess.v2.engine.mcts.MctsValue;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * User: aostrovsky
  * Date: 30-Sep-2009
@@ -16,66 +18,116 @@ public class Ucbt2Value implements MctsValue<Ucbt2Value>
         @Override public Ucbt2Value newValue() {
             return new Ucbt2Value();
         }
+
+        @Override public Ucbt2Value newValue(int visits, double sum) {
+            return new Ucbt2Value(visits, sum);
+        }
     }
 
 
     //--------------------------------------------------------------------
-    private double sum;
-    private double sumSquares;
-    private int    visits;
+    private static final AtomicLongFieldUpdater<Ucbt2Value> STATS =
+            AtomicLongFieldUpdater.newUpdater(
+                    Ucbt2Value.class, "stats");
+
+    private static final AtomicLongFieldUpdater<Ucbt2Value> SQUARES =
+            AtomicLongFieldUpdater.newUpdater(
+                    Ucbt2Value.class, "sumSquares");
+
+
+    //--------------------------------------------------------------------
+    // visits and sum, see PackedStats
+    private volatile long stats;
+
+    // fixed point, added after stats so can lag behind by a playout
+    private volatile long sumSquares;
 
 
     //--------------------------------------------------------------------
     public Ucbt2Value()
     {
-        sum        = 0;
+        stats      = 0;
         sumSquares = 0;
-        visits     = 0;
+    }
+
+    /**
+     * The sum of squares is not known, it is taken to be the sum,
+     *  which is exact for rewards of 0 and 1 and an upper bound
+     *  for the rest.
+     */
+    public Ucbt2Value(int visits, double sum)
+    {
+        stats      = PackedStats.pack(visits, sum);
+        sumSquares = PackedStats.reward(sum);
     }
 
 
     //--------------------------------------------------------------------
     @Override public void update(double winRate)
     {
-        sum        += winRate;
-        sumSquares += winRate * winRate;
+        STATS  .addAndGet(this, PackedStats.visit (winRate));
+        SQUARES.addAndGet(this, PackedStats.reward(winRate * winRate));
+    }
+
+    @Override public int addVirtualLoss() {
+        return PackedStats.visits(
+                STATS.getAndAdd(this, PackedStats.VISIT));
+    }
+
+    @Override public void resolveVirtualLoss(double winRate) {
+        STATS  .addAndGet(this, PackedStats.reward(winRate));
+        SQUARES.addAndGet(this, PackedStats.reward(winRate * winRate));
+    }
+
+    @Override public int visits() {
+        return PackedStats.visits(stats);
+    }
+
+    @Override public long packedStats() {
+        return stats;
+    }
 
-        visits++;
+    @Override public void merge(Ucbt2Value other) {
+        STATS  .addAndGet(this, other.stats);
+        SQUARES.addAndGet(this, other.sumSquares);
     }
 
 
     //--------------------------------------------------------------------
     @Override public double confidenceBound(
-            Ucbt2Value transpositionValue,
-            Ucbt2Value withRespectToParent)
+            long       transpositionStats,
+            int        parentVisits,
+            double     logParentVisits)
     {
-        int    trials = withRespectToParent.visits;
-        double mean   = mean();
+        long   packed = stats;
+        int    visits = PackedStats.visits(packed);
+        double mean   = PackedStats.sum(packed) / visits;
         return mean
                 + Math.sqrt(
-                    (Math.log(trials) / visits)
+                    (logParentVisits / visits)
                     * Math.min(0.25,
-                            varianceBound(mean, trials)));
+                            varianceBound(mean, visits, logParentVisits)));
     }
 
     private double mean() {
-        return sum / visits;
+        long packed = stats;
+        return PackedStats.sum(packed) / PackedStats.visits(packed);
     }
 
 
     //--------------------------------------------------------------------
     private double varianceBound(
-            double mean, int turn) {
+            double mean, int visits, double logTurn) {
 
-        return sumSquares / visits
+        return PackedStats.scaled(sumSquares) / visits
                 - mean * mean
-                + Math.sqrt((2 * Math.log(turn)) / visits);
+                + Math.sqrt((2 * logTurn) / visits);
     }
 
 
     //--------------------------------------------------------------------
     @Override public String toString() {
-        return visits + " (" + (sum / visits) + ")";
+        return visits() + " (" + mean() + ")";
     }
 
 
@@ -84,7 +136,7 @@ public class Ucbt2Value implements MctsValue<Ucbt2Value>
             implements MctsSelector<Ucbt2Value> {
         @Override public int compare(
                 Ucbt2Value a, Ucbt2Value b) {
-            return a.visits - b.visits;
+            return a.visits() - b.visits();
         }
     }
 
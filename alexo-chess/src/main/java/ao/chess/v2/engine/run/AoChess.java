@@ -1,17 +1,21 @@
 package ao.chess.v2.engine.run;
 
 import ao.chess.v1.util.Io;
+import ao.chess.v2.engine.MemoryBudget;
 import ao.chess.v2.engine.Player;
 import ao.chess.v2.engine.heuristic.player.HeuristicPlayer;
 import ao.chess.v2.engine.heuristic.impl.simple.SimpleWinTally;
 import ao.chess.v2.engine.mcts.heuristic.MctsCaptureHeuristic;
 import ao.chess.v2.engine.mcts.heuristic.MctsHeuristicImpl;
+import ao.chess.v2.engine.mcts.node.MctsDagNode;
 import ao.chess.v2.engine.mcts.node.MctsNodeImpl;
 import ao.chess.v2.engine.mcts.player.MctsPlayer;
 import ao.chess.v2.engine.mcts.rollout.MctsRolloutImpl;
+import ao.chess.v2.engine.mcts.scheduler.MctsClockScheduler;
 import ao.chess.v2.engine.mcts.scheduler.MctsSchedulerImpl;
 import ao.chess.v2.engine.mcts.transposition.NullTransTable;
 import ao.chess.v2.engine.mcts.value.Ucb1TunedValue;
+import ao.chess.v2.engine.mcts.value.Ucb1Value2;
 import ao.chess.v2.engine.simple.RandomPlayer;
 import ao.chess.v2.engine.simple.SimPlayer;
 import ao.chess.v2.state.Move;
@@ -62,6 +66,8 @@ public class AoChess {
     private static final String WINBOARD_TIME     = "time";
     private static final String WINBOARD_FORCE    = "force";
     private static final String WINBOARD_LEVEL    = "level";
+    private static final String WINBOARD_HARD     = "hard";
+    private static final String WINBOARD_EASY     = "easy";
 
 
     //--------------------------------------------------------------------
@@ -85,7 +91,7 @@ public class AoChess {
                 bot = new MctsPlayer(
                         new MctsNodeImpl.Factory<Ucb1TunedValue>(),
                         new Ucb1TunedValue.Factory(),
-                        new MctsRolloutImpl(false),
+                        new MctsRolloutImpl(true),
                         new Ucb1TunedValue.VisitSelector(),
                         new MctsHeuristicImpl(),
                         new NullTransTable<Ucb1TunedValue>(),
@@ -124,13 +130,16 @@ public class AoChess {
 //                );
                 Io.display("loading...");
                 bot = new MctsPlayer(
-                        new MctsNodeImpl.Factory<Ucb1TunedValue>(),
+                        new MctsNodeImpl.Factory<Ucb1TunedValue>(
+                                MemoryBudget.ofHeapFraction(0.5)),
                         new Ucb1TunedValue.Factory(),
-                        new MctsRolloutImpl(false),
+                        new MctsRolloutImpl(true),
                         new Ucb1TunedValue.VisitSelector(),
                         new MctsCaptureHeuristic(),
                         new NullTransTable<Ucb1TunedValue>(),
-                        new MctsSchedulerImpl.Factory()
+                        new MctsClockScheduler.Factory(),
+                        Runtime.getRuntime().availableProcessors(),
+                        true
                 );
                 Io.display("done loading!");
 //                bot = new MctsPlayer(
@@ -143,6 +152,18 @@ public class AoChess {
 //                                new Ucb1Value2.Factory()),
 //                        new MctsSchedulerImpl.Factory()
 //                );
+            } else if (botName.equals("uct_dag")) {
+                Io.display("Transposition DAG UCT");
+                bot = new MctsPlayer(
+                        new MctsDagNode.Factory<Ucb1Value2>(),
+                        new Ucb1Value2.Factory(),
+                        new MctsRolloutImpl(true),
+                        new Ucb1Value2.VisitSelector(),
+                        new MctsCaptureHeuristic(),
+                        new NullTransTable<Ucb1Value2>(),
+                        new MctsClockScheduler.Factory(),
+                        Runtime.getRuntime().availableProcessors()
+                );
             } else if (botName.equals("sim")) {
                 bot = new SimPlayer(false);
             } else if (botName.equals("sim_o")) {
@@ -208,17 +229,20 @@ public class AoChess {
 
             else if (command.equals( WINBOARD_NEW ))
             {
+                stopPondering(bot);
                 force = false;
                 state = State.initial();
             }
 
             else if (command.equals( WINBOARD_QUIT ))
             {
+                stopPondering(bot);
                 return false;
             }
 
             else if (command.startsWith( WINBOARD_SETBOARD ))
             {
+                stopPondering(bot);
                 state = State.fromFen( command.substring(9) );
             }
 
@@ -255,6 +279,17 @@ public class AoChess {
 				force = true;
 			}
 
+            // Pondering turned on or off
+            else if (command.equals( WINBOARD_HARD ))
+            {
+                setPondering(bot, true);
+            }
+
+            else if (command.equals( WINBOARD_EASY ))
+            {
+                setPondering(bot, false);
+            }
+
             else if(command.startsWith("st"))
 			{
 				try
@@ -283,7 +318,10 @@ public class AoChess {
 				{
                     String moveCommand = command.substring(9);
                     forceMove(state, moveCommand);
-                    if (gameIsDrawnBy50MovesRule(state)) return true;
+                    if (gameIsDrawnBy50MovesRule(state)) {
+                        stopPondering(bot);
+                        return true;
+                    }
 				}
 
 				if (! force)
@@ -323,6 +361,23 @@ public class AoChess {
     }
 
 
+    //--------------------------------------------------------------------
+    // the game is over, or another one is set up
+    private static void stopPondering(Player bot)
+    {
+        if (bot instanceof MctsPlayer) {
+            ((MctsPlayer) bot).stopPondering();
+        }
+    }
+
+    private static void setPondering(Player bot, boolean ponder)
+    {
+        if (bot instanceof MctsPlayer) {
+            ((MctsPlayer) bot).setPondering(ponder);
+        }
+    }
+
+
     //--------------------------------------------------------------------
     private static boolean gameIsDrawnBy50MovesRule(State state)
     {
@@ -1,5 +1,6 @@
 package ao.chess.v2.engine.simple;
 
+import ao.chess.v2.data.FastRandom;
 import ao.chess.v2.engine.PlayerImpl;
 import ao.chess.v2.state.Move;
 import ao.chess.v2.state.State;
@@ -22,6 +23,6 @@ public class RandomPlayer extends PlayerImpl
         int nMoves = position.legalMoves(moves);
         if (nMoves <= 0) return -1;
 
-        return moves[(int)(Math.random() * nMoves)];
+        return moves[ FastRandom.local().nextInt(nMoves) ];
     }
 }
@@ -1,12 +1,11 @@
 package ao.chess.v2.engine.simple;
 
 import ao.chess.v1.util.Io;
-import ao.chess.v2.data.MovePicker;
 import ao.chess.v2.engine.Player;
 import ao.chess.v2.engine.Pool;
+import ao.chess.v2.engine.mcts.rollout.MctsRolloutKernel;
 import ao.chess.v2.piece.Colour;
 import ao.chess.v2.state.Move;
-import ao.chess.v2.state.Outcome;
 import ao.chess.v2.state.State;
 import ao.chess.v2.state.Status;
 
@@ -120,58 +119,8 @@ public class SimPlayer implements Player
 
     private double doSimulate(State protoState, Colour fromPov)
     {
-        State   state     = protoState.prototype();
-        int     nextCount = 0;
-        int[]   nextMoves = new int[ Move.MAX_PER_PLY ];
-        int[]   moves     = new int[ Move.MAX_PER_PLY ];
-        int     nMoves    = state.moves(moves);
-        Outcome outcome   = null;
-
-        if (nMoves < 1) return Double.NaN;
-
-        boolean wasDrawnBy50MovesRule = false;
-        do
-        {
-            int     move;
-            boolean madeMove = false;
-
-            int[] moveOrder = MovePicker.pickRandom(nMoves);
-            for (int moveIndex : moveOrder)
-            {
-                move = Move.apply(moves[ moveIndex ], state);
-
-                // generate opponent moves
-                nextCount = state.moves(nextMoves);
-
-                if (nextCount < 0) { // if leads to mate
-                    Move.unApply(move, state);
-                } else {
-                    madeMove = true;
-                    break;
-                }
-            }
-            if (! madeMove) {
-                outcome = state.isInCheck(state.nextToAct())
-                          ? Outcome.loses(state.nextToAct())
-                          : Outcome.DRAW;
-                break;
-            }
-
-            {
-                int[] tempMoves = nextMoves;
-                nextMoves       = moves;
-                moves           = tempMoves;
-                nMoves          = nextCount;
-            }
-        }
-        while (! (wasDrawnBy50MovesRule =
-                    state.isDrawnBy50MovesRule()));
-        if (wasDrawnBy50MovesRule) {
-            outcome = Outcome.DRAW;
-        }
-
-        return outcome == null
-               ? Double.NaN
-               : outcome.valueFor(fromPov);
+        return MctsRolloutKernel.local()
+                .randomPlayout(protoState)
+                .valueFor(fromPov);
     }
 }
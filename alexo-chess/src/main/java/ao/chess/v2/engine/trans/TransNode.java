@@ -9,15 +9,18 @@ import ao.chess.v2.engine.mcts.heuristic.MctsFpuHeuristic;
 import ao.chess.v2.engine.mcts.message.MctsAction;
 import ao.chess.v2.engine.mcts.node.MctsNodeImpl;
 import ao.chess.v2.engine.mcts.value.Ucb1TunedValue;
+import ao.chess.v2.engine.mcts.value.UcbMath;
 import ao.chess.v2.state.Move;
 import ao.chess.v2.state.State;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.LongCollection;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.ObjectBidirectionalIterator;
 import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * User: aostrovsky
  * Date: 12-Oct-2009
@@ -30,7 +33,7 @@ public class TransNode
             new MctsFpuHeuristic();
 
     private static final MctsRollout   MC_TRIAL   =
-            new MctsRolloutImpl(false);
+            new MctsRolloutImpl(true);
 
     private static final MctsSelector<Ucb1TunedValue>
             SELECTOR = new Ucb1TunedValue.MeanSelector();
@@ -42,11 +45,14 @@ public class TransNode
     private int[]          acts;
     private TransNode[]    kids;
 
+    // last TransTable epoch it was kept in, see TransTable.touch
+    int                    epoch;
+
 
     //--------------------------------------------------------------------
     public TransNode(State state) {
         value     = new Ucb1TunedValue();
-        stateHash = state.longHashCode();
+        stateHash = state.transpositionHashCode();
         acts      = null;
         kids      = null;
     }
@@ -60,8 +66,8 @@ public class TransNode
 
     //--------------------------------------------------------------------
     public void runTrajectory(
-            State                     fromProtoState,
-            Long2ObjectMap<TransNode> transpositionTable)
+            State      fromProtoState,
+            TransTable transpositionTable)
     {
         State cursor = fromProtoState.prototype();
 
@@ -97,10 +103,12 @@ public class TransNode
             State                              cursor,
             MctsHeuristic                      heuristic,
             ObjectLinkedOpenHashSet<TransNode> path,
-            Long2ObjectMap<TransNode>          transTable)
+            TransTable                         transTable)
     {
         if (kids.length == 0) return null;
 
+        int    parentVisits       = value.visits();
+        double parentLog          = UcbMath.log(parentVisits);
         double greatestValue      = Double.NEGATIVE_INFINITY;
         int    greatestValueIndex = -1;
         for (int i = 0; i < kids.length; i++) {
@@ -112,7 +120,8 @@ public class TransNode
             } else if (path.contains(kid)) {
                 continue;
             } else {
-                banditValue = kid.value.confidenceBound(null, value);
+                banditValue = kid.value.confidenceBound(
+                        0, parentVisits, parentLog);
             }
 
             if (banditValue > greatestValue) {
@@ -132,6 +141,9 @@ public class TransNode
             } else {
                 kids[ greatestValueIndex ] = existing;
             }
+        } else {
+            transTable.touch(kids[ greatestValueIndex ].stateHash,
+                             kids[ greatestValueIndex ]);
         }
         return kids[ greatestValueIndex ];
     }
@@ -199,15 +211,18 @@ public class TransNode
 
 
     //--------------------------------------------------------------------
-    // todo: sometimes results in stack overflow
+    // walks with its own stack, deep lines used to overflow the thread's
     public void addStates(LongCollection to) {
-        if (to.contains(stateHash)) return;
-        to.add(stateHash);
+        List<TransNode> open = new ArrayList<TransNode>();
+        open.add(this);
 
-        if (kids == null) return;
-        for (TransNode kid : kids) {
-            if (kid == null) continue;
-            kid.addStates(to);
+        while (! open.isEmpty()) {
+            TransNode node = open.remove( open.size() - 1 );
+            if (! to.add(node.stateHash) || node.kids == null) continue;
+
+            for (TransNode kid : node.kids) {
+                if (kid != null) open.add(kid);
+            }
         }
     }
 
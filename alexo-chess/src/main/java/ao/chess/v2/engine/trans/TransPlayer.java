@@ -2,14 +2,9 @@ package ao.chess.v2.engine.trans;
 
 import ao.chess.v2.engine.Player;
 import ao.chess.v2.engine.mcts.MctsScheduler;
-import ao.chess.v2.engine.mcts.MctsNode;
-import ao.chess.v2.engine.mcts.message.MctsAction;
-import ao.chess.v2.engine.mcts.node.MctsNodeImpl;
 import ao.chess.v2.engine.mcts.scheduler.MctsSchedulerImpl;
 import ao.chess.v2.state.State;
-import ao.chess.v2.state.Move;
 import ao.chess.v1.util.Io;
-import it.unimi.dsi.fastutil.longs.*;
 
 /**
  * User: aostrovsky
@@ -19,13 +14,7 @@ import it.unimi.dsi.fastutil.longs.*;
 public class TransPlayer implements Player
 {
     //--------------------------------------------------------------------
-    private final Long2ObjectMap<TransNode> transTable =
-            new Long2ObjectOpenHashMap<TransNode>();
-
-
-    //--------------------------------------------------------------------
-    private State     prevState = null;
-    private TransNode prevPlay  = null;
+    private final TransTable transTable = new TransTable();
 
 
     //--------------------------------------------------------------------
@@ -36,21 +25,19 @@ public class TransPlayer implements Player
             int   timePerMove,
             int   timeIncrement)
     {
-        TransNode root = null;
-        if (prevState != null && prevPlay != null) {
-            root = prevPlay.childMatching(
-                    action(prevState, position));
-        }
+        // nodes no trajectory passed through during the last search are
+        //  let go, the rest stay in the table, the reply among them if
+        //  it was searched
+        transTable.nextEpoch();
 
+        long      stateHash = position.transpositionHashCode();
+        TransNode root      = transTable.get(stateHash);
         if (root == null) {
             root = new TransNode(position);
+            transTable.put(stateHash, root);
         } else {
             Io.display("Recycling " + root);
         }
-        LongSet states = new LongOpenHashSet();
-        root.addStates(states);
-        //Io.display("Unique states " + states.size());
-        transTable.keySet().retainAll(states);
 
         MctsScheduler scheduler = new MctsSchedulerImpl.Factory()
                 .newScheduler(timeLeft, timePerMove, timeIncrement);
@@ -75,28 +62,6 @@ public class TransPlayer implements Player
         TransAction act = root.bestMove();
         if (act == null) return -1; // game is done 
 
-        prevPlay  = act.node();
-        prevState = position.prototype();
-        Move.apply(act.action(), prevState);
-
         return act.action();
     }
-
-
-    //--------------------------------------------------------------------
-    private int action(State from, State to)
-    {
-        int[] moves  = new int[ Move.MAX_PER_PLY ];
-        int   nMoves = from.moves( moves );
-
-        for (int i = 0; i < nMoves; i++) {
-            int move = Move.apply(moves[i], from);
-            if (from.equals( to )) {
-                Move.unApply(move, from);
-                return move;
-            }
-            Move.unApply(move, from);
-        }
-        return -1;
-    }
 }
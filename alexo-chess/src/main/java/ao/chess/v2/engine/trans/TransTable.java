@@ -0,0 +1,73 @@
+package ao.chess.v2.engine.trans;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * Nodes by state hash, in two generations: a node of the previous one
+ *  moves to the current one when it is looked up, or when a trajectory
+ *  passes through it (see touch), and the rest are let go by the next
+ *  epoch, so no sweep over the table is needed.  A node that no search
+ *  passes through during a whole epoch is dropped even if the tree can
+ *  still reach it, a later transposition to it then gets a new node.
+ */
+public class TransTable
+{
+    //--------------------------------------------------------------------
+    private Long2ObjectMap<TransNode> current;
+    private Long2ObjectMap<TransNode> previous;
+    private int                       epoch;
+
+
+    //--------------------------------------------------------------------
+    public TransTable()
+    {
+        current  = new Long2ObjectOpenHashMap<TransNode>();
+        previous = new Long2ObjectOpenHashMap<TransNode>();
+    }
+
+
+    //--------------------------------------------------------------------
+    public TransNode get(long stateHash)
+    {
+        TransNode node = current.get( stateHash );
+        if (node == null) {
+            node = previous.remove( stateHash );
+            if (node != null) {
+                current.put( stateHash, node );
+                node.epoch = epoch;
+            }
+        }
+        return node;
+    }
+
+    public void put(long stateHash, TransNode node)
+    {
+        current.put( stateHash, node );
+        node.epoch = epoch;
+    }
+
+    /**
+     * Keeps a node that a trajectory passed through in the current
+     *  generation, only the first pass in an epoch does any lookup.
+     */
+    public void touch(long stateHash, TransNode node)
+    {
+        if (node.epoch == epoch) return;
+
+        previous.remove( stateHash );
+        if (current.get( stateHash ) == null) {
+            current.put( stateHash, node );
+        }
+        node.epoch = epoch;
+    }
+
+
+    //--------------------------------------------------------------------
+    public void nextEpoch()
+    {
+        previous = current;
+        current  = new Long2ObjectOpenHashMap<TransNode>();
+        epoch++;
+    }
+}
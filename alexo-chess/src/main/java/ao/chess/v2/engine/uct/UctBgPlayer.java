@@ -1,6 +1,7 @@
 package ao.chess.v2.engine.uct;
 
 import ao.chess.v1.util.Io;
+import ao.chess.v2.engine.MemoryBudget;
 import ao.chess.v2.engine.Player;
 import ao.chess.v2.state.Move;
 import ao.chess.v2.state.State;
@@ -25,7 +26,8 @@ public class UctBgPlayer implements Player
     private Future<?> preCalc = null;
 
 
-    private final boolean OPTIMIZE;
+    private final boolean      OPTIMIZE;
+    private final MemoryBudget budget;
     private final UctNode[] nextRoot = new UctNode[1];
 
 
@@ -33,7 +35,17 @@ public class UctBgPlayer implements Player
     //--------------------------------------------------------------------
     public UctBgPlayer(boolean optimize)
     {
-        OPTIMIZE = optimize;
+        this(optimize, null);
+    }
+
+    /**
+     * @param budget bounds the tree searched in the background, so it
+     *          doesn't keep growing while waiting for MAX_EPISODES
+     */
+    public UctBgPlayer(boolean optimize, final MemoryBudget budget)
+    {
+        OPTIMIZE    = optimize;
+        this.budget = budget;
 
         if (preCalc != null) {
             preCalc.cancel(true);
@@ -56,7 +68,12 @@ public class UctBgPlayer implements Player
                                            nextRoot[0].optimize().act()));
                         }
 
-                        nextRoot[0].strategize(null);
+                        UctNode root = nextRoot[0];
+                        root.strategize(null);
+
+                        if (budget != null && budget.step()) {
+                            root.prune(budget);
+                        }
                     } else {
                         try {
                             Thread.sleep(100);
@@ -86,7 +103,8 @@ public class UctBgPlayer implements Player
             nextRoot[0] = null;
         } else {
             Io.display("Recycling " + curRoot.visits() +
-                        "@" + curRoot.depth());
+                        "@" + curRoot.depth() +
+                        (budget == null ? "" : " | " + budget));
         }
 
         nextRoot[0] = curRoot;
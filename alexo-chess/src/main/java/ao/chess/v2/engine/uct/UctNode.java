@@ -1,8 +1,10 @@
 package ao.chess.v2.engine.uct;
 
 import ao.chess.v1.util.Io;
-import ao.chess.v2.data.MovePicker;
+import ao.chess.v2.data.FastRandom;
+import ao.chess.v2.engine.MemoryBudget;
 import ao.chess.v2.engine.Pool;
+import ao.chess.v2.engine.mcts.rollout.MctsRolloutKernel;
 import ao.chess.v2.state.Move;
 import ao.chess.v2.state.Outcome;
 import ao.chess.v2.state.State;
@@ -21,6 +23,16 @@ import java.util.concurrent.Future;
  */
 public class UctNode
 {
+    //--------------------------------------------------------------------
+    // node fields, and a position once it is played out from
+    private static final int  NODE_BYTES     = 40;
+    private static final int  STATE_BYTES    = 352;
+
+    // one position and all its children, each with a move
+    public  static final long MAX_STEP_BYTES =
+            STATE_BYTES + Move.MAX_PER_PLY * (NODE_BYTES + 8);
+
+
     //--------------------------------------------------------------------
     private final boolean optimize;
 
@@ -84,6 +96,69 @@ public class UctNode
         return visits;
     }
 
+    public long bytes()
+    {
+        long bytes = NODE_BYTES + (state == null ? 0 : STATE_BYTES);
+        if (kids == null) return bytes;
+
+        bytes += 8 * kids.length;
+        for (UctNode kid : kids)
+        {
+            bytes += kid.bytes();
+        }
+        return bytes;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Once this tree grows past the budget, replaces its subtrees with
+     *  at most 1, 2, 4... visits by unvisited nodes, until it is down
+     *  to the target of the budget.  Must be called by the thread that
+     *  runs strategize.
+     */
+    public void prune(MemoryBudget budget)
+    {
+        long bytes = bytes();
+        if (budget.isExceeded(bytes))
+        {
+            budget.startPruning();
+            for (int threshold = 1;
+                    bytes > budget.target() && threshold < visits;
+                    threshold *= 2)
+            {
+                bytes -= pruneColderThan(threshold, budget);
+            }
+        }
+        budget.measured(bytes, MAX_STEP_BYTES);
+    }
+
+    private long pruneColderThan(int threshold, MemoryBudget budget)
+    {
+        if (kids == null) return 0;
+
+        long freed = 0;
+        for (int i = 0; i < kids.length; i++)
+        {
+            UctNode kid = kids[ i ];
+            if (kid.unvisited()) continue;
+
+            if (kid.visits <= threshold)
+            {
+                long kidBytes = kid.bytes() - NODE_BYTES;
+                kids[ i ] = new UctNode(optimize, null, null);
+
+                budget.evicted(kidBytes);
+                freed += kidBytes;
+            }
+            else
+            {
+                freed += kid.pruneColderThan(threshold, budget);
+            }
+        }
+        return freed;
+    }
+
 
     //--------------------------------------------------------------------
 //    public void addTo(Map<State, UctNode> transposition)
@@ -274,7 +349,7 @@ public class UctNode
             double utcValue;
             if (kid.unvisited())
             {
-                utcValue = 1000 + Math.random();
+                utcValue = 1000 + FastRandom.local().nextDouble();
             }
             else
             {
@@ -346,58 +421,10 @@ public class UctNode
     }
     private double computeMonteCarloValue()
     {
-        State   simState  = state.prototype();
-        int     nextCount = 0;
-        int[]   nextMoves = new int[ 128 ];
-        int[]   moves     = new int[ 128 ];
-        int     nMoves    = state.moves(moves);
-        Outcome outcome   = null;
-
-        boolean wasDrawnBy50MovesRule = false;
-        do
-        {
-            int     move;
-            boolean madeMove = false;
+        MctsRolloutKernel kernel  = MctsRolloutKernel.local();
+        Outcome           outcome = kernel.randomPlayout(state);
 
-            int[] moveOrder = MovePicker.pickRandom(nMoves);
-            for (int moveIndex : moveOrder)
-            {
-                move = Move.apply(moves[ moveIndex ], simState);
-
-                // generate opponent moves
-                nextCount = simState.moves(nextMoves);
-
-                if (nextCount < 0) { // if leads to mate
-                    Move.unApply(move, simState);
-                } else {
-                    madeMove = true;
-                    break;
-                }
-            }
-            if (! madeMove) {
-                outcome = simState.isInCheck(simState.nextToAct())
-                          ? Outcome.loses(simState.nextToAct())
-                          : Outcome.DRAW;
-                break;
-            }
-
-            {
-                int[] tempMoves = nextMoves;
-                nextMoves       = moves;
-                moves           = tempMoves;
-                nMoves          = nextCount;
-            }
-        }
-        while (! (wasDrawnBy50MovesRule =
-                    state.isDrawnBy50MovesRule()));
-        if (wasDrawnBy50MovesRule) {
-            outcome = Outcome.DRAW;
-        }
-
-        return outcome == null
-               ? Double.NaN
-               : outcome.valueFor(simState.nextToAct());
-//        return outcome;
+        return outcome.valueFor(kernel.finalState().nextToAct());
     }
 
 
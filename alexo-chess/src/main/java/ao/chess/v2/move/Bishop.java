@@ -1,6 +1,6 @@
 package ao.chess.v2.move;
 
-import static ao.chess.v2.move.SlidingPieces.slide;
+import ao.chess.v2.data.BitLoc;
 
 /**
  * Date: Feb 6, 2009
@@ -33,9 +33,8 @@ public class Bishop implements BoardPiece
                       long notProponent,
                       long opponent)
     {
-        return slide(bishop,  1,  1, notOccupied, opponent) |
-               slide(bishop,  1, -1, notOccupied, opponent) |
-               slide(bishop, -1,  1, notOccupied, opponent) |
-               slide(bishop, -1, -1, notOccupied, opponent);
+        return MagicAttacks.bishopAttacks(
+                    BitLoc.bitBoardToLocation(bishop), occupied)
+                & notProponent;
     }
 }
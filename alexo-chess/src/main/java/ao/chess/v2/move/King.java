@@ -44,7 +44,7 @@ public class King implements BoardPiece
                BitBoard.offset(king, -1, -1);
     }
 
-    public long attacks(int pieceLocation) {
+    public static long attacks(int pieceLocation) {
         return CACHE[ pieceLocation ];
     }
 
@@ -0,0 +1,306 @@
+package ao.chess.v2.move;
+
+import ao.chess.v2.data.BitBoard;
+import ao.chess.v2.data.BitLoc;
+import ao.chess.v2.data.Location;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static ao.chess.v2.data.BitBoard.offset;
+
+/**
+ * Slider attacks by "fancy" magic bitboards: the relevant blockers of
+ *  a square are multiplied by a per-square magic number, and the top
+ *  bits of the product index a precomputed attack set.
+ *
+ * Attacks include the first blocker in each direction, regardless of
+ *  its colour, so callers mask out their own pieces.
+ *
+ * See http://chessprogramming.wikispaces.com/Magic+Bitboards
+ */
+public class MagicAttacks
+{
+    //--------------------------------------------------------------------
+    private MagicAttacks() {}
+
+
+    //--------------------------------------------------------------------
+    private static final int[][] ROOK_DELTAS   =
+            {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] BISHOP_DELTAS =
+            {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+
+    //--------------------------------------------------------------------
+    // found by findMagic sharing one new Random(420),
+    //  rooks then bishops, in square order
+    private static final long[] ROOK_MAGIC = {
+            0x0080048222524000L, 0x00C01000A0004001L, 0x0880200080100009L,
+            0xA900040821001000L, 0x0A00182A00102044L, 0x1300180201000400L,
+            0x5080420009003080L, 0x2080004100102880L, 0x0470800030804000L,
+            0x0A01400050002004L, 0x8402002200408010L, 0x0000808008001000L,
+            0x2001802400080082L, 0x0000808002000400L, 0x4003000200010004L,
+            0x8082000042042081L, 0x0440008020408008L, 0x9890054004402001L,
+            0x4021010010200040L, 0x24000A0020420010L, 0x0408008080040008L,
+            0x0282808004000200L, 0x4024040081482210L, 0x202012000C608104L,
+            0x800040078000852CL, 0x8D50200080400080L, 0x1830080020200400L,
+            0x01000A0200402010L, 0x4004008080080005L, 0x01C4004040020100L,
+            0x00D0100402080200L, 0x0000010200008064L, 0x0081008042002200L,
+            0x0042008022004100L, 0x0000402001001104L, 0x8004A1008D001000L,
+            0x0018020880800400L, 0x0002800400800200L, 0x0020215844004A10L,
+            0x0050800040800100L, 0x0030410080010020L, 0x8110004020104000L,
+            0x0000100020008080L, 0x0841201001050008L, 0x1401000802110004L,
+            0x0800020004008080L, 0x0420880110040002L, 0x0043004410820001L,
+            0xD00040208A010200L, 0x80A2058129004A00L, 0xC880104020010100L,
+            0x0028001001800880L, 0x0006802800040180L, 0x0002020004008080L,
+            0x4000850A10780400L, 0x8011001082004100L, 0x028100102580C202L,
+            0x0009020020104082L, 0x1A1820010012C109L, 0x0042051000082101L,
+            0x8012000805102082L, 0x0401000208040001L, 0x00050044020000B1L,
+            0x42040020804D0C02L
+    };
+
+    private static final long[] BISHOP_MAGIC = {
+            0x04A2082104008A08L, 0x0020012202004208L, 0x3004840402448A00L,
+            0x0418060044040800L, 0x0081104080008201L, 0x0028440220010100L,
+            0x1022080148087000L, 0x0000104802282002L, 0x00610810091A2420L,
+            0x0000A00850C08080L, 0xC020082204002000L, 0x0050090401034000L,
+            0x0A02884841000000L, 0x0200820110880000L, 0xA00601084A02208CL,
+            0x0820090108069A02L, 0x8041004808088090L, 0xA02810A0A8108081L,
+            0x0002100408060408L, 0x0018004920802008L, 0x4424002880E00246L,
+            0x0C820004C300A000L, 0x0004168704060304L, 0x2822000242009408L,
+            0x1010104040028200L, 0x0A32020009480819L, 0x0441010010005200L,
+            0x9205080014004010L, 0x0010040008802110L, 0x400202200A101000L,
+            0x008C108000480420L, 0x0801010040404800L, 0x50181804080A2080L,
+            0x4400840400501020L, 0x8402003008020280L, 0x58410108004B0040L,
+            0x10240C0400014500L, 0x1020008080090042L, 0x0124A40080E40089L,
+            0x8102008100002402L, 0x8008080210420803L, 0x000B134820021200L,
+            0x8002120110020100L, 0x4042414208000280L, 0x0002400A81201600L,
+            0x0440080081044020L, 0x0082680104000102L, 0x0814808404400101L,
+            0x12C50288A0880004L, 0x20010080A420000CL, 0x804000C414111000L,
+            0x0215000042020000L, 0x0048408821010000L, 0x4020408304210000L,
+            0x200A200102020001L, 0x0002040404104480L, 0x2080202802101008L,
+            0x0080022602026001L, 0x0128800042084400L, 0x4048000004208840L,
+            0x0104000004050401L, 0x040000401002062CL, 0x1404204404080042L,
+            0xC202088818044042L
+    };
+
+
+    //--------------------------------------------------------------------
+    private static final long[] ROOK_MASK     = new long[ Location.COUNT ];
+    private static final int [] ROOK_SHIFT    = new int [ Location.COUNT ];
+    private static final int [] ROOK_OFFSET   = new int [ Location.COUNT ];
+    private static final long[] ROOK_ATTACKS;
+
+    private static final long[] BISHOP_MASK   = new long[ Location.COUNT ];
+    private static final int [] BISHOP_SHIFT  = new int [ Location.COUNT ];
+    private static final int [] BISHOP_OFFSET = new int [ Location.COUNT ];
+    private static final long[] BISHOP_ATTACKS;
+
+    static
+    {
+        ROOK_ATTACKS   = populate(ROOK_DELTAS, ROOK_MAGIC,
+                ROOK_MASK, ROOK_SHIFT, ROOK_OFFSET);
+        BISHOP_ATTACKS = populate(BISHOP_DELTAS, BISHOP_MAGIC,
+                BISHOP_MASK, BISHOP_SHIFT, BISHOP_OFFSET);
+    }
+
+    private static long[] populate(
+            int[][] deltas,
+            long[]  magics,
+            long[]  masks,
+            int[]   shifts,
+            int[]   offsets)
+    {
+        int size = 0;
+        for (int loc = 0; loc < Location.COUNT; loc++) {
+            masks  [ loc ] = relevantBlockers(loc, deltas);
+            shifts [ loc ] = Long.SIZE - Long.bitCount(masks[ loc ]);
+            offsets[ loc ] = size;
+            size += 1 << Long.bitCount(masks[ loc ]);
+        }
+
+        long[] attacks = new long[ size ];
+        for (int loc = 0; loc < Location.COUNT; loc++) {
+            long mask     = masks[ loc ];
+            long blockers = 0;
+            do {
+                int  index  = offsets[ loc ] + (int)
+                        ((blockers * magics[ loc ]) >>> shifts[ loc ]);
+                long attack = rayAttacks(loc, blockers, deltas);
+                if (attacks[ index ] != 0 &&
+                        attacks[ index ] != attack) {
+                    throw new Error("bad magic for " +
+                            Location.toString(loc));
+                }
+                attacks[ index ] = attack;
+
+                // Carry-Rippler: next subset of the mask
+                blockers = (blockers - mask) & mask;
+            }
+            while (blockers != 0);
+        }
+        return attacks;
+    }
+
+
+    //--------------------------------------------------------------------
+    public static long rookAttacks(int loc, long occupied)
+    {
+        return ROOK_ATTACKS[ ROOK_OFFSET[loc] + (int)
+                (((occupied & ROOK_MASK[loc]) * ROOK_MAGIC[loc])
+                        >>> ROOK_SHIFT[loc]) ];
+    }
+
+    public static long bishopAttacks(int loc, long occupied)
+    {
+        return BISHOP_ATTACKS[ BISHOP_OFFSET[loc] + (int)
+                (((occupied & BISHOP_MASK[loc]) * BISHOP_MAGIC[loc])
+                        >>> BISHOP_SHIFT[loc]) ];
+    }
+
+    public static long queenAttacks(int loc, long occupied)
+    {
+        return rookAttacks  (loc, occupied) |
+               bishopAttacks(loc, occupied);
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * @param from square
+     * @param to square
+     * @return squares strictly between the two, if they share a rank,
+     *          file or diagonal, otherwise empty
+     */
+    public static long between(int from, int to)
+    {
+        long fromBB = BitLoc.locationToBitBoard(from);
+        long toBB   = BitLoc.locationToBitBoard(to);
+
+        if ((rookAttacks(from, 0) & toBB) != 0) {
+            return rookAttacks(from, toBB) & rookAttacks(to, fromBB);
+        } else if ((bishopAttacks(from, 0) & toBB) != 0) {
+            return bishopAttacks(from, toBB) & bishopAttacks(to, fromBB);
+        }
+        return 0;
+    }
+
+    /**
+     * @param from square
+     * @param to square
+     * @return the whole rank, file or diagonal through both squares,
+     *          or empty if they don't share one
+     */
+    public static long line(int from, int to)
+    {
+        long fromBB = BitLoc.locationToBitBoard(from);
+        long toBB   = BitLoc.locationToBitBoard(to);
+
+        if ((rookAttacks(from, 0) & toBB) != 0) {
+            return (rookAttacks(from, 0) & rookAttacks(to, 0))
+                    | fromBB | toBB;
+        } else if ((bishopAttacks(from, 0) & toBB) != 0) {
+            return (bishopAttacks(from, 0) & bishopAttacks(to, 0))
+                    | fromBB | toBB;
+        }
+        return 0;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Reference ray walker, used to build (and check) the tables.
+     *
+     * @param loc square of the sliding piece
+     * @param occupied all pieces on the board
+     * @param deltas (rank, file) direction of each ray
+     * @return squares attacked from loc
+     */
+    public static long rayAttacks(
+            int loc, long occupied, int[][] deltas)
+    {
+        long piece   = BitLoc.locationToBitBoard(loc);
+        long attacks = 0;
+        for (int[] delta : deltas) {
+            attacks |= SlidingPieces.slide(
+                    piece, delta[0], delta[1], ~occupied, occupied);
+        }
+        return attacks;
+    }
+
+    public static long rookRayAttacks(int loc, long occupied) {
+        return rayAttacks(loc, occupied, ROOK_DELTAS);
+    }
+
+    public static long bishopRayAttacks(int loc, long occupied) {
+        return rayAttacks(loc, occupied, BISHOP_DELTAS);
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Used to generate ROOK_MAGIC and BISHOP_MAGIC, takes a few seconds
+     *  for all squares so the results are kept as constants.
+     *
+     * @param loc square to find a magic for
+     * @param rook true for rook magic, false for bishop
+     * @param rand source of candidate magics
+     * @return magic number without collisions for loc
+     */
+    public static long findMagic(int loc, boolean rook, Random rand)
+    {
+        int[][] deltas = (rook ? ROOK_DELTAS : BISHOP_DELTAS);
+        long    mask   = relevantBlockers(loc, deltas);
+        int     bits   = Long.bitCount(mask);
+
+        long[] blockers = new long[ 1 << bits ];
+        long[] attacks  = new long[ 1 << bits ];
+        long   subset   = 0;
+        int    count    = 0;
+        do {
+            blockers[ count ] = subset;
+            attacks [ count ] = rayAttacks(loc, subset, deltas);
+            count++;
+            subset = (subset - mask) & mask;
+        }
+        while (subset != 0);
+
+        long[] used = new long[ 1 << bits ];
+        while (true) {
+            long magic = rand.nextLong() & rand.nextLong() & rand.nextLong();
+            if (Long.bitCount((mask * magic) & BitBoard.RANK_8) < 6) {
+                continue;
+            }
+
+            Arrays.fill(used, 0);
+            boolean collides = false;
+            for (int i = 0; i < count && ! collides; i++) {
+                int index = (int)((blockers[i] * magic) >>> (64 - bits));
+                if (used[ index ] == 0) {
+                    used[ index ] = attacks[ i ];
+                } else if (used[ index ] != attacks[ i ]) {
+                    collides = true;
+                }
+            }
+            if (! collides) return magic;
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    // a blocker on the last square of a ray makes no difference
+    private static long relevantBlockers(int loc, int[][] deltas)
+    {
+        long piece    = BitLoc.locationToBitBoard(loc);
+        long blockers = 0;
+        for (int[] delta : deltas) {
+            for (long cursor = offset(piece, delta[0], delta[1]);
+                 offset(cursor, delta[0], delta[1]) != 0;
+                 cursor = offset(cursor, delta[0], delta[1])) {
+                blockers |= cursor;
+            }
+        }
+        return blockers;
+    }
+}
@@ -42,12 +42,12 @@ public class Pawns
         }
     }
 
-//    public static long whiteAttacks(int loc) {
-//        return WHITE_ATTACK[ loc ];
-//    }
-//    public static long blackAttacks(int loc) {
-//        return BLACK_ATTACK[ loc ];
-//    }
+    public static long whiteAttacks(int loc) {
+        return WHITE_ATTACK[ loc ];
+    }
+    public static long blackAttacks(int loc) {
+        return BLACK_ATTACK[ loc ];
+    }
 
 
     //--------------------------------------------------------------------
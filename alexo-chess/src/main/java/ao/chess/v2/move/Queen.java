@@ -1,5 +1,7 @@
 package ao.chess.v2.move;
 
+import ao.chess.v2.data.BitLoc;
+
 /**
  * Date: Feb 6, 2009
  * Time: 4:37:00 AM
@@ -20,11 +22,8 @@ public class Queen implements BoardPiece
                       long notProponent,
                       long opponent)
     {
-        return   Rook.MOVES.moves(
-                    queen, occupied, notOccupied,
-                    proponent, notProponent, opponent) |
-               Bishop.MOVES.moves(
-                    queen, occupied, notOccupied,
-                    proponent, notProponent, opponent);
+        return MagicAttacks.queenAttacks(
+                    BitLoc.bitBoardToLocation(queen), occupied)
+                & notProponent;
     }
 }
@@ -1,6 +1,6 @@
 package ao.chess.v2.move;
 
-import static ao.chess.v2.move.SlidingPieces.slide;
+import ao.chess.v2.data.BitLoc;
 
 /**
  * Date: Feb 6, 2009
@@ -33,9 +33,8 @@ public class Rook implements BoardPiece
                       long notProponent,
                       long opponent)
     {
-        return slide(rook,  1,  0, notOccupied, opponent) |
-               slide(rook, -1,  0, notOccupied, opponent) |
-               slide(rook,  0,  1, notOccupied, opponent) |
-               slide(rook,  0, -1, notOccupied, opponent);
+        return MagicAttacks.rookAttacks(
+                    BitLoc.bitBoardToLocation(rook), occupied)
+                & notProponent;
     }
 }
@@ -205,10 +205,10 @@ public class Move
         int index = (move & TYPE_MASK) >>> TYPE_SHIFT;
         return MoveType.VALUES[ index ];
     }
-    private static int fromSquareIndex(int move) {
+    static int fromSquareIndex(int move) {
         return (move & FROM_MASK) >>> FROM_SHIFT;
     }
-    private static int toSquareIndex(int move) {
+    static int toSquareIndex(int move) {
         return (move & TO_MASK) >>> TO_SHIFT;
     }
     private static int figure(int move) {
@@ -235,7 +235,7 @@ public class Move
 //        int index = (move & PROMO_MASK) >>> PROMO_SHIFT;
 //        return Figure.VALUES[ index ];
     }
-    private static CastleType castleType(int move) {
+    static CastleType castleType(int move) {
         int index = (move & CASTLE_MASK) >>> CASTLE_SHIFT;
         return CastleType.VALUES[ index ];
     }
@@ -248,7 +248,7 @@ public class Move
 
 
     //--------------------------------------------------------------------
-    private static int addCaptured(
+    static int addCaptured(
             int toMove, int captured) {
         return toMove | ((captured + 1) << CAPTURE_SHIFT);
     }
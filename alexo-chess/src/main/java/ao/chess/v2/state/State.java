@@ -4,6 +4,10 @@ import ao.chess.v2.data.BitBoard;
 import ao.chess.v2.data.BitLoc;
 import ao.chess.v2.data.BoardLocation;
 import ao.chess.v2.data.Location;
+import ao.chess.v2.move.King;
+import ao.chess.v2.move.Knight;
+import ao.chess.v2.move.MagicAttacks;
+import ao.chess.v2.move.Pawns;
 import ao.chess.v2.move.SlidingPieces;
 import ao.chess.v2.piece.Colour;
 import ao.chess.v2.piece.Figure;
@@ -13,13 +17,16 @@ import ao.chess.v2.piece.Piece;
 import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Date: Feb 6, 2009
  * Time: 2:07:25 AM
  *
- * NOTE: can only undo ONE move, after that the reversible moves and
- *          allowed castles might be out of whack.
+ * NOTE: moves can be undone in the reverse order they were applied,
+ *          to any depth; the reversible moves, en passant, allowed
+ *          castles and castle path of every ply are kept on an undo
+ *          stack which grows as needed.
  */
 public class State
 {
@@ -124,6 +131,11 @@ public class State
             BLACK_Q_CASTLE_MOVE ^ BLACK_Q_CASTLE_ROOK_MOVE;
 
 
+    private static final long[] CASTLE_PATHS = {0,
+            WHITE_K_CASTLE_PATH, WHITE_Q_CASTLE_PATH,
+            BLACK_K_CASTLE_PATH, BLACK_Q_CASTLE_PATH};
+
+
     //--------------------------------------------------------------------
     public  static final byte EP_NONE       = -1;
     private static final byte EP_WHITE_DEST = 5;
@@ -132,6 +144,25 @@ public class State
     public  static final String FILES = "abcdefgh";
 
 
+    //--------------------------------------------------------------------
+    /*
+     * Layout of undo int is:
+     *  [
+     *    reversible moves              8 |
+     *    castles                       4 |
+     *    en passant file + 1           4 |
+     *    castle path index             3
+     *  ]
+     */
+    private static final int UNDO_CASTLES_SHIFT    = 8;
+    private static final int UNDO_EN_PASSANT_SHIFT = 12;
+    private static final int UNDO_PATH_SHIFT       = 16;
+    private static final int UNDO_NIBBLE           = 0xF;
+    private static final int UNDO_REVERSIBLE       = 0xFF;
+
+    private static final int UNDO_INITIAL_PLIES    = 32;
+
+
     //--------------------------------------------------------------------
     private static final int PAWNS   = Figure.PAWN  .ordinal();
     private static final int KNIGHTS = Figure.KNIGHT.ordinal();
@@ -140,9 +171,66 @@ public class State
     private static final int QUEENS  = Figure.QUEEN .ordinal();
     private static final int KING    = Figure.KING  .ordinal();
 
+    private static final int PROMOTIONS = QUEENS - KNIGHTS + 1;
+
+    private static final int SAMPLE_PIECES       = 16;
+    private static final int SAMPLE_FIGURE_SHIFT = 6;
+    private static final int SAMPLE_FROM_MASK    = 63;
+
     private static final int[]   NON_KINGS_BY_PROB        =
             {PAWNS, ROOKS, BISHOPS, KNIGHTS, QUEENS};
 
+    // b1, d1, ... a2, c2, ... h8
+    private static final long LIGHT_SQUARES = 0x55AA55AA55AA55AAL;
+
+    // reversible moves from which transpositionHashCode counts them
+    private static final int  CLOCK_HORIZON = 80;
+
+
+    //--------------------------------------------------------------------
+    private static final long WHITE_K_CASTLE_ZOBRIST =
+            castleZobrist(Colour.WHITE,
+                    WHITE_KING_START, WHITE_K_CASTLE_END,
+                    WHITE_K_ROOK_START, WHITE_K_CASTLE_ROOK_END);
+    private static final long WHITE_Q_CASTLE_ZOBRIST =
+            castleZobrist(Colour.WHITE,
+                    WHITE_KING_START, WHITE_Q_CASTLE_END,
+                    WHITE_Q_ROOK_START, WHITE_Q_CASTLE_ROOK_END);
+    private static final long BLACK_K_CASTLE_ZOBRIST =
+            castleZobrist(Colour.BLACK,
+                    BLACK_KING_START, BLACK_K_CASTLE_END,
+                    BLACK_K_ROOK_START, BLACK_K_CASTLE_ROOK_END);
+    private static final long BLACK_Q_CASTLE_ZOBRIST =
+            castleZobrist(Colour.BLACK,
+                    BLACK_KING_START, BLACK_Q_CASTLE_END,
+                    BLACK_Q_ROOK_START, BLACK_Q_CASTLE_ROOK_END);
+
+    // zobrist of every combination of castling rights, by castles bits
+    private static final long[] CASTLES_ZOBRIST = new long[
+            (WHITE_CASTLE | BLACK_CASTLE) + 1];
+
+    static {
+        for (byte castleBits = 0;
+                castleBits < CASTLES_ZOBRIST.length;
+                castleBits++) {
+            CASTLES_ZOBRIST[ castleBits ] =
+                    addZobristCastles(0, castleBits);
+        }
+    }
+
+    private static long castleZobrist(
+            Colour colour,
+            long   kingFrom, long kingTo,
+            long   rookFrom, long rookTo) {
+        return Zobrist.toggleMove(
+                Zobrist.toggleMove(0, colour, KING,
+                        BitLoc.bitBoardToLocation(kingFrom),
+                        BitLoc.bitBoardToLocation(kingTo)),
+                colour, ROOKS,
+                BitLoc.bitBoardToLocation(rookFrom),
+                BitLoc.bitBoardToLocation(rookTo));
+    }
+
 
     //--------------------------------------------------------------------
     private long[] wPieces;
@@ -153,17 +241,24 @@ public class State
     private byte   nPieces;
 
     private byte   enPassant; // available to take for nextToAct
-    private byte   prevEnPassant;
-
     private byte   castles;
-    private byte   prevCastles;
     private long   castlePath;
-    private long   prevCastlePath;
     private byte   reversibleMoves;
-    private byte   prevReversibleMoves;
+
+    // irreversible state before each applied move, by ply
+    private int[]  undo;
+    private int    undoPly;
 
     private Colour nextToAct;
 
+    // zobrist of pieces only, kept up to date by every move and undo
+    private long   pieceZobrist;
+
+    // scratch space of sampleMove, allocated on first use
+    private long[] sampleTargets;
+    private int[]  sampleCounts;
+    private int[]  samplePieces;
+
 
     //--------------------------------------------------------------------
     private static State INITIAL = fromFen(
@@ -213,9 +308,11 @@ public class State
         }
 
         castlePath          = 0;
-        prevCastlePath      = 0;
-        prevCastles         = castles;
-        prevReversibleMoves = reversibleMoves;
+
+        undo                = new int[ UNDO_INITIAL_PLIES ];
+        undoPly             = 0;
+
+        pieceZobrist        = zobristPieces();
     }
 
     private State(long[] copyWPieces,
@@ -227,11 +324,10 @@ public class State
                   byte   copyNumberPieces,
                   long   copyWhiteBB,
                   long   copyBlackBB,
-                  byte   copyPrevCastles,
-                  byte   copyPrevReversibleMoves,
-                  byte   copyPrevEnPassants,
                   long   copyCastlePath,
-                  long   copyPrevCastlePath
+                  int[]  copyUndo,
+                  int    copyUndoPly,
+                  long   copyPieceZobrist
             )
     {
         wPieces = copyWPieces;
@@ -247,10 +343,10 @@ public class State
         blackBB = copyBlackBB;
         nPieces = copyNumberPieces;
 
-        prevCastles         = copyPrevCastles;
-        prevCastlePath      = copyPrevCastlePath;
-        prevEnPassant       = copyPrevEnPassants;
-        prevReversibleMoves = copyPrevReversibleMoves;
+        undo    = copyUndo;
+        undoPly = copyUndoPly;
+
+        pieceZobrist = copyPieceZobrist;
     }
 
 
@@ -267,29 +363,315 @@ public class State
 //    {
 //        return legalMoves(moves, new NullTransTable());
 //    }
+    /**
+     * generate all legal moves from this position, without trying them:
+     *  the checkers of the king and the pieces pinned to it are found
+     *  once, and every piece only moves within the resulting masks.
+     *
+     * @param moves generate moves into, captures include the
+     *          captured figure so they can be undone
+     * @return number of moves generated, or -1 if the opponent's king
+     *          (or the path of its last castle) can be captured
+     */
     public int legalMoves(
             int[] moves/*, TranspositionTable transTable*/)
     {
-        int pseudoMoves[] = new int[ Move.MAX_PER_PLY ];
-        int nPseudoMoves  = moves(pseudoMoves);
-        if (nPseudoMoves == -1) return -1;
+        long occupied    = whiteBB | blackBB;
+        long notOccupied = ~occupied;
+
+        long   proponent, opponent, pieces[], oppPieces[];
+        Colour opponentColour = nextToAct.invert();
+        if (nextToAct == Colour.WHITE) {
+            proponent = whiteBB;
+            opponent  = blackBB;
+            pieces    = wPieces;
+            oppPieces = bPieces;
+        } else {
+            proponent = blackBB;
+            opponent  = whiteBB;
+            pieces    = bPieces;
+            oppPieces = wPieces;
+        }
+
+        if (canCaptureKing(occupied)) return -1;
+
+        long notProponent = ~proponent;
+        long notOpponent  = ~opponent;
+
+        long king     = pieces[ KING ];
+        int  kingLoc  = BitLoc.bitBoardToLocation(king);
+        long checkers = attackers(kingLoc, occupied, opponentColour);
+
+        long evasions;
+        if (checkers == 0) {
+            evasions = -1;
+        } else if ((checkers & (checkers - 1)) == 0) {
+            evasions = checkers | MagicAttacks.between(
+                    kingLoc, BitLoc.bitBoardToLocation(checkers));
+        } else {
+            // double check, only the king can move
+            evasions = 0;
+        }
+
+        long pinned = pinned(
+                kingLoc, occupied, proponent, opponent, oppPieces);
+
+        int offset = 0;
+        for (int f = 0; evasions != 0 && f < KING; f++)
+        {
+            Figure figure = Figure.VALUES[ f ];
+            Piece  piece  = Piece.valueOf(nextToAct, figure);
+
+            long bb = pieces[ f ];
+            while (bb != 0)
+            {
+                long pieceBoard = BitBoard.lowestOneBit(bb);
+                long pieceMoves = piece.moves(
+                        pieceBoard, occupied, notOccupied,
+                        proponent, notProponent, opponent) & evasions;
+                if ((pieceBoard & pinned) != 0) {
+                    pieceMoves &= MagicAttacks.line(kingLoc,
+                            BitLoc.bitBoardToLocation(pieceBoard));
+                }
+
+                offset = addLegalMoves(
+                        figure, pieceBoard, moves, offset,
+                        pieceMoves, opponent, notOpponent, oppPieces);
+
+                // reset LS1B
+                bb &= bb - 1;
+            }
+        }
+
+        long kingMoves   = King.attacks(kingLoc) & notProponent;
+        long withoutKing = occupied ^ king;
+        long safeMoves   = 0;
+        while (kingMoves != 0)
+        {
+            long to = BitBoard.lowestOneBit(kingMoves);
+            if (attackers(BitLoc.bitBoardToLocation(to),
+                          withoutKing, opponentColour) == 0) {
+                safeMoves |= to;
+            }
+            kingMoves &= kingMoves - 1;
+        }
+        offset = addLegalMoves(
+                Figure.KING, king, moves, offset,
+                safeMoves, opponent, notOpponent, oppPieces);
+
+        if (checkers != 0) return offset;
+        return addLegalCastles(moves, offset, occupied, opponentColour);
+    }
+
+    private int addLegalMoves(
+            Figure figure,
+            long   fromBB,
+            int[]  moves,
+            int    offset,
+            long   movesBB,
+            long   opponent,
+            long   notOpponent,
+            long[] oppPieces)
+    {
+        int from = BitLoc.bitBoardToLocation(fromBB);
+
+        int nextOffset;
+        nextOffset = addMobility(
+                figure, from, moves, offset, movesBB & notOpponent);
+        nextOffset = addLegalCaptures(
+                figure, from, moves, nextOffset,
+                movesBB & opponent, oppPieces);
+
+        if (figure == Figure.PAWN) {
+            if (canPromote(from)) {
+                nextOffset = addPromotions(
+                        moves, nextOffset - offset, nextOffset);
+            }
+            else if (canEnPassant(from))
+            {
+                // can discover a check along the rank of both pawns,
+                //  rare enough to just try it
+                nextOffset = addEnPassant(
+                        from, moves, nextOffset);
+                if (! isLegal(moves[ nextOffset - 1 ])) {
+                    nextOffset--;
+                }
+            }
+        }
+        return nextOffset;
+    }
+
+    private int addLegalCaptures(
+            Figure figure,
+            int    from,
+            int[]  moves,
+            int    offset,
+            long   moveBB,
+            long[] oppPieces)
+    {
+        while (moveBB != 0)
+        {
+            long moveBoard = BitBoard.lowestOneBit(moveBB);
+            moves[ offset++ ] = Move.addCaptured(
+                    Move.capture(figure, from,
+                            BitLoc.bitBoardToLocation(moveBoard)),
+                    figureAt(moveBoard, oppPieces));
+
+            moveBB &= moveBB - 1;
+        }
+        return offset;
+    }
+
+    private boolean isLegal(int pseudoMove)
+    {
+        Colour mover    = nextToAct;
+        int    undoable = Move.apply(pseudoMove, this);
+        boolean legal   = ! isInCheck(mover);
+        Move.unApply(undoable, this);
+        return legal;
+    }
 
-        int nextMoveIndex = 0;
-        for (int i = 0; i < nPseudoMoves; i++)
+    private int addLegalCastles(
+            int[]  moves,
+            int    offset,
+            long   occupied,
+            Colour opponentColour)
+    {
+        int  kingStart, qKingEnd, kKingEnd;
+        long kingCastle , kingCorridor , kingPath;
+        long queenCastle, queenCorridor, queenPath;
+        if (nextToAct == Colour.WHITE) {
+            if ((castles & WHITE_CASTLE) == 0) return offset;
+            kingCastle    = WHITE_K_CASTLE;
+            queenCastle   = WHITE_Q_CASTLE;
+            kingCorridor  = WHITE_K_CASTLE_CORRIDOR;
+            queenCorridor = WHITE_Q_CASTLE_CORRIDOR;
+            kingPath      = WHITE_K_CASTLE_PATH;
+            queenPath     = WHITE_Q_CASTLE_PATH;
+            kingStart     = WHITE_KING_START_INDEX;
+            kKingEnd      = WHITE_K_CASTLE_END_INDEX;
+            qKingEnd      = WHITE_Q_CASTLE_END_INDEX;
+        } else {
+            if ((castles & BLACK_CASTLE) == 0) return offset;
+            kingCastle    = BLACK_K_CASTLE;
+            queenCastle   = BLACK_Q_CASTLE;
+            kingCorridor  = BLACK_K_CASTLE_CORRIDOR;
+            queenCorridor = BLACK_Q_CASTLE_CORRIDOR;
+            kingPath      = BLACK_K_CASTLE_PATH;
+            queenPath     = BLACK_Q_CASTLE_PATH;
+            kingStart     = BLACK_KING_START_INDEX;
+            kKingEnd      = BLACK_K_CASTLE_END_INDEX;
+            qKingEnd      = BLACK_Q_CASTLE_END_INDEX;
+        }
+
+        int newOffset = offset;
+        if ((castles & kingCastle) != 0 &&
+                (occupied & kingCorridor) == 0 &&
+                ! isAttacked(kingPath, occupied, opponentColour)) {
+            moves[ newOffset++ ] = Move.castle(
+                    kingStart, kKingEnd, CastleType.KING_SIDE);
+        }
+        if ((castles & queenCastle) != 0 &&
+                (occupied & queenCorridor) == 0 &&
+                ! isAttacked(queenPath, occupied, opponentColour)) {
+            moves[ newOffset++ ] = Move.castle(
+                    kingStart, qKingEnd, CastleType.QUEEN_SIDE);
+        }
+        return newOffset;
+    }
+
+
+    //--------------------------------------------------------------------
+    private long pinned(
+            int    kingLoc,
+            long   occupied,
+            long   proponent,
+            long   opponent,
+            long[] oppPieces)
+    {
+        long queens  = oppPieces[ QUEENS ];
+        long snipers =
+                (MagicAttacks.rookAttacks(kingLoc, opponent) &
+                        (oppPieces[ ROOKS ] | queens)) |
+                (MagicAttacks.bishopAttacks(kingLoc, opponent) &
+                        (oppPieces[ BISHOPS ] | queens));
+
+        long pinned = 0;
+        while (snipers != 0)
         {
-            int pseudoMove = pseudoMoves[ i ];
-            int undoable   = Move.apply(pseudoMove, this);
+            long blockers = occupied & MagicAttacks.between(kingLoc,
+                    BitLoc.bitBoardToLocation(snipers));
+            if ((blockers & (blockers - 1)) == 0) {
+                pinned |= blockers & proponent;
+            }
+            snipers &= snipers - 1;
+        }
+        return pinned;
+    }
 
-            if (! isInCheck(nextToAct.invert())/* &&
-                    ! transTable.contains(longHashCode())*/) {
-                moves[ nextMoveIndex++ ] = undoable;
+    /**
+     * @param square location index
+     * @param by attacking side
+     * @return true if any piece of the attacking side could capture
+     *          on the given square (whether or not that is legal)
+     */
+    public boolean isAttacked(int square, Colour by)
+    {
+        return attackers(square, whiteBB | blackBB, by) != 0;
+    }
+
+    private boolean canCaptureKing(long occupied)
+    {
+        long oppKing = (nextToAct == Colour.WHITE)
+                       ? bPieces[ KING ] : wPieces[ KING ];
+        return attackers(BitLoc.bitBoardToLocation(oppKing),
+                         occupied, nextToAct) != 0 ||
+               isAttacked(castlePath, occupied, nextToAct);
+    }
+
+    private boolean isAttacked(
+            long squares, long occupied, Colour by)
+    {
+        while (squares != 0)
+        {
+            if (attackers(BitLoc.bitBoardToLocation(squares),
+                          occupied, by) != 0) {
+                return true;
             }
+            squares &= squares - 1;
+        }
+        return false;
+    }
 
-            Move.unApply(undoable, this);
+    /*
+     * Works backwards from the square: a piece of the attacking side
+     *  attacks it exactly when the same piece of the other side placed
+     *  on the square would attack that piece.
+     */
+    private long attackers(
+            int square, long occupied, Colour by)
+    {
+        long[] pieces;
+        long   pawnAttackers;
+        if (by == Colour.WHITE) {
+            pieces        = wPieces;
+            pawnAttackers = Pawns.blackAttacks(square);
+        } else {
+            pieces        = bPieces;
+            pawnAttackers = Pawns.whiteAttacks(square);
         }
-        return nextMoveIndex;
+
+        long queens = pieces[ QUEENS ];
+        return (pawnAttackers          & pieces[ PAWNS   ]) |
+               (Knight.attacks(square) & pieces[ KNIGHTS ]) |
+               (King  .attacks(square) & pieces[ KING    ]) |
+               (MagicAttacks.rookAttacks  (square, occupied) &
+                        (pieces[ ROOKS   ] | queens))       |
+               (MagicAttacks.bishopAttacks(square, occupied) &
+                        (pieces[ BISHOPS ] | queens));
     }
 
+
     /**
      * generate all pseudo-legal moves from this position
      *  i.e. moves at the end of which you might have your king in check
@@ -302,21 +684,24 @@ public class State
         long occupied    = whiteBB | blackBB;
         long notOccupied = ~occupied;
 
-        long proponent, opponent, oppKing, pieces[];
+        long proponent, opponent, pieces[];
         if (nextToAct == Colour.WHITE) {
             proponent = whiteBB;
             opponent  = blackBB;
-            oppKing   = bPieces[ KING ];
             pieces    = wPieces;
         } else {
             proponent = blackBB;
             opponent  = whiteBB;
-            oppKing   = wPieces[ KING ];
             pieces    = bPieces;
         }
 
-        oppKing  |= castlePath;
-        opponent |= castlePath;
+        if (canCaptureKing(occupied)) {
+            // can mate opponent's king, so either the opponent
+            //  left his king in check (i.e. made a pseudo-legal
+            //  move which has to be undone), or the game
+            //  is over with nextToAct being the winner
+            return -1;
+        }
 
         long notProponent = ~proponent;
         long notOpponent  = ~opponent;
@@ -331,13 +716,6 @@ public class State
                 long pseudoMoves = Piece.valueOf(nextToAct, f).moves(
                         pieceBoard, occupied, notOccupied,
                         proponent, notProponent, opponent);
-                if ((oppKing & pseudoMoves) != 0) {
-                    // can mate opponent's king, so either the opponent
-                    //  left his king in check (i.e. made a pseudo-legal
-                    //  move which has to be undone), or the game
-                    //  is over with nextToAct being the winner
-                    return -1;
-                }
 
                 offset = addMoves(
                         f, pieceBoard, moves, offset,
@@ -420,6 +798,194 @@ public class State
     }
 
 
+    //--------------------------------------------------------------------
+    /**
+     * Draws one of the moves that moves(int[]) would generate, uniformly
+     *  at random, without generating them: the pseudo-legal moves of
+     *  each piece are only counted, and just the drawn one is encoded.
+     * Use isLegalMove to check it before applying it.
+     *
+     * @param rand source of randomness
+     * @return pseudo-legal move, or -1 if there are none
+     */
+    public int sampleMove(Random rand)
+    {
+        if (sampleTargets == null) {
+            sampleTargets = new long[ SAMPLE_PIECES ];
+            sampleCounts  = new int [ SAMPLE_PIECES ];
+            samplePieces  = new int [ SAMPLE_PIECES ];
+        }
+
+        long occupied    = whiteBB | blackBB;
+        long notOccupied = ~occupied;
+
+        long proponent, opponent, pieces[];
+        if (nextToAct == Colour.WHITE) {
+            proponent = whiteBB;
+            opponent  = blackBB;
+            pieces    = wPieces;
+        } else {
+            proponent = blackBB;
+            opponent  = whiteBB;
+            pieces    = bPieces;
+        }
+        long notProponent = ~proponent;
+
+        // count the moves of every piece, remembering their targets
+        int nMovable = 0;
+        int nMoves   = 0;
+        for (int f = PAWNS; f <= KING; f++)
+        {
+            long bb = pieces[ f ];
+            while (bb != 0)
+            {
+                int  from = BitLoc.bitBoardToLocation(bb);
+                long pseudoMoves;
+                if (f == PAWNS) {
+                    pseudoMoves = Piece.valueOf(nextToAct, Figure.PAWN)
+                            .moves(BitLoc.locationToBitBoard(from),
+                                   occupied, notOccupied, proponent,
+                                   notProponent, opponent);
+                } else {
+                    pseudoMoves = pieceAttacks(f, from, occupied)
+                                & notProponent;
+                }
+
+                int count = Long.bitCount(pseudoMoves);
+                if (f == PAWNS) {
+                    if (canPromote(from)) {
+                        count *= PROMOTIONS;
+                    } else if (canEnPassant(from)) {
+                        count++;
+                    }
+                }
+
+                if (count != 0) {
+                    sampleTargets[ nMovable   ] = pseudoMoves;
+                    sampleCounts [ nMovable   ] = count;
+                    samplePieces [ nMovable++ ] =
+                            from | (f << SAMPLE_FIGURE_SHIFT);
+                    nMoves += count;
+                }
+
+                // reset LS1B
+                bb &= bb - 1;
+            }
+        }
+
+        boolean kingSide  = canCastle(CastleType.KING_SIDE , occupied);
+        boolean queenSide = canCastle(CastleType.QUEEN_SIDE, occupied);
+        if (kingSide ) nMoves++;
+        if (queenSide) nMoves++;
+        if (nMoves == 0) return -1;
+
+        int index = rand.nextInt(nMoves);
+        for (int i = 0; i < nMovable; i++) {
+            if (index < sampleCounts[ i ]) {
+                int piece = samplePieces[ i ];
+                return sampledMove(
+                        Figure.VALUES[ piece >>> SAMPLE_FIGURE_SHIFT ],
+                        piece & SAMPLE_FROM_MASK,
+                        sampleTargets[ i ], opponent, index);
+            }
+            index -= sampleCounts[ i ];
+        }
+
+        return castleMove((kingSide && index == 0)
+                          ? CastleType.KING_SIDE
+                          : CastleType.QUEEN_SIDE);
+    }
+
+    private static long pieceAttacks(
+            int figure, int from, long occupied)
+    {
+        if (figure == KNIGHTS) {
+            return Knight.attacks(from);
+        } else if (figure == BISHOPS) {
+            return MagicAttacks.bishopAttacks(from, occupied);
+        } else if (figure == ROOKS) {
+            return MagicAttacks.rookAttacks(from, occupied);
+        } else if (figure == QUEENS) {
+            return MagicAttacks.queenAttacks(from, occupied);
+        } else {
+            return King.attacks(from);
+        }
+    }
+
+    private int sampledMove(
+            Figure figure,
+            int    from,
+            long   pseudoMoves,
+            long   opponent,
+            int    index)
+    {
+        int promotions = (figure == Figure.PAWN && canPromote(from))
+                         ? PROMOTIONS : 1;
+
+        long targets = pseudoMoves;
+        for (int i = index / promotions; i > 0 && targets != 0; i--) {
+            targets &= targets - 1;
+        }
+        if (targets == 0) {
+            // one past the regular moves of a pawn
+            return enPassantMove(from);
+        }
+
+        long to   = BitBoard.lowestOneBit(targets);
+        int  move = ((to & opponent) != 0)
+                    ? Move.capture (figure, from,
+                                    BitLoc.bitBoardToLocation(to))
+                    : Move.mobility(figure, from,
+                                    BitLoc.bitBoardToLocation(to));
+        return (promotions == 1)
+               ? move
+               : Move.setPromotion(move, KNIGHTS + index % promotions);
+    }
+
+
+    /**
+     * Checks a pseudo-legal move of nextToAct (as generated by
+     *  moves(int[]) or sampleMove) without applying it: legal moves
+     *  don't leave the king (or the path of a castle) attacked.
+     *
+     * @param pseudoMove move that is at least pseudo-legal
+     * @return true if the move is legal
+     */
+    public boolean isLegalMove(int pseudoMove)
+    {
+        long   occupied       = whiteBB | blackBB;
+        Colour opponentColour = nextToAct.invert();
+        long   king           = (nextToAct == Colour.WHITE)
+                                ? wPieces[ KING ] : bPieces[ KING ];
+
+        MoveType type = Move.moveType(pseudoMove);
+        if (type == MoveType.CASTLE) {
+            return ! isAttacked(castlePath(Move.castleType(pseudoMove)),
+                                occupied, opponentColour);
+        }
+
+        int  from     = Move.fromSquareIndex(pseudoMove);
+        int  to       = Move.toSquareIndex(pseudoMove);
+        long fromBB   = BitLoc.locationToBitBoard(from);
+        long toBB     = BitLoc.locationToBitBoard(to);
+        long captured = toBB;
+        if (type == MoveType.EN_PASSANT) {
+            captured = BitLoc.locationToBitBoard(
+                    Location.squareIndex(
+                            Location.rankIndex(from),
+                            Location.fileIndex(to)));
+        }
+
+        long after   = (occupied ^ fromBB ^ captured) | toBB;
+        int  kingLoc = ((king & fromBB) != 0)
+                       ? to : BitLoc.bitBoardToLocation(king);
+
+        // whatever was captured no longer attacks
+        return (attackers(kingLoc, after, opponentColour)
+                    & ~captured) == 0;
+    }
+
+
     //--------------------------------------------------------------------
     private int addCastles(
             int[] moves, int offset,
@@ -465,17 +1031,65 @@ public class State
         return newOffset;
     }
 
+    private boolean canCastle(CastleType type, long occupied)
+    {
+        byte right;
+        long corridor;
+        if (nextToAct == Colour.WHITE) {
+            if (type == CastleType.KING_SIDE) {
+                right    = WHITE_K_CASTLE;
+                corridor = WHITE_K_CASTLE_CORRIDOR;
+            } else {
+                right    = WHITE_Q_CASTLE;
+                corridor = WHITE_Q_CASTLE_CORRIDOR;
+            }
+        } else {
+            if (type == CastleType.KING_SIDE) {
+                right    = BLACK_K_CASTLE;
+                corridor = BLACK_K_CASTLE_CORRIDOR;
+            } else {
+                right    = BLACK_Q_CASTLE;
+                corridor = BLACK_Q_CASTLE_CORRIDOR;
+            }
+        }
+        return (castles & right) != 0 &&
+               (occupied & corridor) == 0;
+    }
+
+    private int castleMove(CastleType type)
+    {
+        if (nextToAct == Colour.WHITE) {
+            return Move.castle(WHITE_KING_START_INDEX,
+                    (type == CastleType.KING_SIDE)
+                    ? WHITE_K_CASTLE_END_INDEX
+                    : WHITE_Q_CASTLE_END_INDEX, type);
+        } else {
+            return Move.castle(BLACK_KING_START_INDEX,
+                    (type == CastleType.KING_SIDE)
+                    ? BLACK_K_CASTLE_END_INDEX
+                    : BLACK_Q_CASTLE_END_INDEX, type);
+        }
+    }
+
+    private long castlePath(CastleType type)
+    {
+        if (nextToAct == Colour.WHITE) {
+            return (type == CastleType.KING_SIDE)
+                   ? WHITE_K_CASTLE_PATH : WHITE_Q_CASTLE_PATH;
+        } else {
+            return (type == CastleType.KING_SIDE)
+                   ? BLACK_K_CASTLE_PATH : BLACK_Q_CASTLE_PATH;
+        }
+    }
+
     public void castle(CastleType type)
     {
-        prevCastles    = castles;
-        prevCastlePath = castlePath;
+        pushUndo();
         toggleCastle(type);
 
         nextToAct           = nextToAct.invert();
-        prevReversibleMoves = reversibleMoves;
 //        reversibleMoves     = 0;
         reversibleMoves++;
-        prevEnPassant = enPassant;
         enPassant = EP_NONE;
     }
 
@@ -484,10 +1098,7 @@ public class State
         nextToAct = nextToAct.invert();
         toggleCastle(type);
 
-        castles         = prevCastles;
-        enPassant = prevEnPassant;
-        reversibleMoves = prevReversibleMoves;
-        castlePath      = prevCastlePath;
+        popUndo();
     }
 
     private void toggleCastle(CastleType type)
@@ -495,11 +1106,13 @@ public class State
         if (nextToAct == Colour.WHITE) {
             if (type == CastleType.KING_SIDE) {
                 wPieces[ KING  ] ^= WHITE_K_CASTLE_MOVE;
+                pieceZobrist     ^= WHITE_K_CASTLE_ZOBRIST;
                 wPieces[ ROOKS ] ^= WHITE_K_CASTLE_ROOK_MOVE;
                 whiteBB          ^= WHITE_K_CASTLE_ALL_MOVES;
                 castlePath        = WHITE_K_CASTLE_PATH;
             } else {
                 wPieces[ KING  ] ^= WHITE_Q_CASTLE_MOVE;
+                pieceZobrist     ^= WHITE_Q_CASTLE_ZOBRIST;
                 wPieces[ ROOKS ] ^= WHITE_Q_CASTLE_ROOK_MOVE;
                 whiteBB          ^= WHITE_Q_CASTLE_ALL_MOVES;
                 castlePath        = WHITE_Q_CASTLE_PATH;
@@ -508,11 +1121,13 @@ public class State
         } else {
             if (type == CastleType.KING_SIDE) {
                 bPieces[ KING  ] ^= BLACK_K_CASTLE_MOVE;
+                pieceZobrist     ^= BLACK_K_CASTLE_ZOBRIST;
                 bPieces[ ROOKS ] ^= BLACK_K_CASTLE_ROOK_MOVE;
                 blackBB          ^= BLACK_K_CASTLE_ALL_MOVES;
                 castlePath        = BLACK_K_CASTLE_PATH;
             } else {
                 bPieces[ KING  ] ^= BLACK_Q_CASTLE_MOVE;
+                pieceZobrist     ^= BLACK_Q_CASTLE_ZOBRIST;
                 bPieces[ ROOKS ] ^= BLACK_Q_CASTLE_ROOK_MOVE;
                 blackBB          ^= BLACK_Q_CASTLE_ALL_MOVES;
                 castlePath        = BLACK_Q_CASTLE_PATH;
@@ -571,6 +1186,52 @@ public class State
     }
 
 
+    //--------------------------------------------------------------------
+    private void pushUndo()
+    {
+        if (undoPly == undo.length) {
+            undo = Arrays.copyOf(undo, undo.length * 2);
+        }
+
+        undo[ undoPly++ ] =
+                 (reversibleMoves & UNDO_REVERSIBLE)                  |
+                 (castles                   << UNDO_CASTLES_SHIFT)    |
+                ((enPassant + 1)            << UNDO_EN_PASSANT_SHIFT) |
+                 (castlePathIndex()         << UNDO_PATH_SHIFT);
+    }
+
+    private void popUndo()
+    {
+        int prev = undo[ --undoPly ];
+
+        reversibleMoves = (byte) (prev & UNDO_REVERSIBLE);
+        castles         = (byte) ((prev >>> UNDO_CASTLES_SHIFT   )
+                                    & UNDO_NIBBLE);
+        enPassant       = (byte) (((prev >>> UNDO_EN_PASSANT_SHIFT)
+                                    & UNDO_NIBBLE) - 1);
+        castlePath      = CASTLE_PATHS[ prev >>> UNDO_PATH_SHIFT ];
+    }
+
+    private int castlePathIndex()
+    {
+        if (castlePath == 0) return 0;
+
+        for (int i = 1; i < CASTLE_PATHS.length; i++) {
+            if (CASTLE_PATHS[ i ] == castlePath) return i;
+        }
+        throw new IllegalStateException(
+                "unknown castle path " + castlePath);
+    }
+
+    /**
+     * @return number of applied moves that can be undone
+     */
+    public int undoablePlies()
+    {
+        return undoPly;
+    }
+
+
     //--------------------------------------------------------------------
     private boolean canPromote(int from)
     {
@@ -605,21 +1266,23 @@ public class State
     //--------------------------------------------------------------------
     public void pushPromote(int from, int to, int promotion)
     {
+        pushUndo();
         pushPromoteBB(nextToAct, from, to, promotion);
 
         nextToAct           = nextToAct.invert();
-        prevReversibleMoves = reversibleMoves;
         reversibleMoves     = 0;
-        prevEnPassant       = enPassant;
         enPassant           = EP_NONE;
-        prevCastlePath      = castlePath;
         castlePath          = 0;
-        prevCastles         = castles;
     }
     private void pushPromoteBB(
             Colour colour, int from, int to, int promotion) {
         long fromBB = BitLoc.locationToBitBoard(from);
         long toBB   = BitLoc.locationToBitBoard(to);
+
+        pieceZobrist = Zobrist.togglePiece(
+                Zobrist.togglePiece(pieceZobrist, colour, PAWNS, from),
+                colour, promotion, to);
+
         if (colour == Colour.WHITE) {
             wPieces[ PAWNS     ] ^= fromBB;
             wPieces[ promotion ] ^= toBB;
@@ -648,17 +1311,14 @@ public class State
     private void capturePromote(
             int from, long toBB, int promotion, int captured)
     {
+        pushUndo();
         capturePromoteBB(nextToAct, from, toBB, promotion, captured);
 
-        prevCastles         = castles;
         updateCastlingRightsTo(captured, toBB);
-        prevCastlePath      = castlePath;
         castlePath          = 0;
 
         nextToAct           = nextToAct.invert();
-        prevReversibleMoves = reversibleMoves;
         reversibleMoves     = 0;
-        prevEnPassant       = enPassant;
         enPassant           = EP_NONE;
 
         nPieces--;
@@ -667,6 +1327,14 @@ public class State
             int from, long toBB, int promotion, int captured)
     {
         long fromBB = BitLoc.locationToBitBoard(from);
+        int  to     = BitLoc.bitBoardToLocation(toBB);
+
+        pieceZobrist = Zobrist.togglePiece(
+                Zobrist.togglePiece(
+                        Zobrist.togglePiece(
+                                pieceZobrist, colour, PAWNS, from),
+                        colour, promotion, to),
+                colour.invert(), captured, to);
 
         if (colour == Colour.WHITE) {
             wPieces[ PAWNS     ] ^= fromBB;
@@ -688,10 +1356,7 @@ public class State
     public void unPushPromote(int from, int to, int promotion)
     {
         nextToAct       = nextToAct.invert();
-        enPassant = prevEnPassant;
-        reversibleMoves = prevReversibleMoves;
-        castles         = prevCastles;
-        castlePath      = prevCastlePath;
+        popUndo();
 
         pushPromoteBB(nextToAct, from, to, promotion);
     }
@@ -700,10 +1365,7 @@ public class State
             int from, int to, int promotion, int captured)
     {
         nextToAct       = nextToAct.invert();
-        castles         = prevCastles;
-        castlePath      = prevCastlePath;
-        enPassant       = prevEnPassant;
-        reversibleMoves = prevReversibleMoves;
+        popUndo();
 
         long toBB = BitLoc.locationToBitBoard(to);
         capturePromoteBB(nextToAct, from, toBB, promotion, captured);
@@ -718,7 +1380,7 @@ public class State
             int fromSquareIndex,
             int toSquareIndex)
     {
-        prevCastles = castles;
+        pushUndo();
         updateCastlingRightsFrom(
                 figure, fromSquareIndex);
 
@@ -726,11 +1388,8 @@ public class State
                    BitLoc.locationToBitBoard(fromSquareIndex),
                    BitLoc.locationToBitBoard(toSquareIndex));
 
-        prevEnPassant = enPassant;
-        enPassant = EP_NONE;
-        prevCastlePath      = castlePath;
-        castlePath          = 0;
-        prevReversibleMoves = reversibleMoves;
+        enPassant  = EP_NONE;
+        castlePath = 0;
 
         if (figure == PAWNS) {
             reversibleMoves = 0;
@@ -750,6 +1409,10 @@ public class State
     {
         long fromTo = from ^ to;
 
+        pieceZobrist = Zobrist.toggleMove(pieceZobrist, colour, figure,
+                BitLoc.bitBoardToLocation(from),
+                BitLoc.bitBoardToLocation(to));
+
         if (colour == Colour.WHITE) {
             wPieces[ figure ] ^= fromTo;
             whiteBB           ^= fromTo;
@@ -772,10 +1435,7 @@ public class State
                    BitLoc.locationToBitBoard(fromSquareIndex),
                    BitLoc.locationToBitBoard(toSquareIndex));
 
-        castles         = prevCastles;
-        castlePath      = prevCastlePath;
-        enPassant       = prevEnPassant;
-        reversibleMoves = prevReversibleMoves;
+        popUndo();
     }
 
 
@@ -808,7 +1468,7 @@ public class State
             long toBB,
             int  captured)
     {
-        prevCastles = castles;
+        pushUndo();
         updateCastlingRightsFrom(
                 attacker, fromSquareIndex);
         updateCastlingRightsTo(
@@ -817,11 +1477,8 @@ public class State
         capture(attacker, captured,
                 BitLoc.locationToBitBoard(fromSquareIndex), toBB);
 
-        prevReversibleMoves = reversibleMoves;
-        prevEnPassant       = enPassant;
         enPassant           = EP_NONE;
         reversibleMoves     = 0;
-        prevCastlePath      = castlePath;
         castlePath          = 0;
 
         nPieces--;
@@ -834,6 +1491,10 @@ public class State
     {
         long fromTo = from ^ to;
 
+        toggleCaptureZobrist(nextToAct, attacker, captured,
+                BitLoc.bitBoardToLocation(from),
+                BitLoc.bitBoardToLocation(to));
+
         if (nextToAct == Colour.WHITE) {
             wPieces[attacker] ^= fromTo;
             bPieces[captured] ^= to;
@@ -850,6 +1511,18 @@ public class State
 
         nextToAct = nextToAct.invert();
     }
+    private void toggleCaptureZobrist(
+            Colour attackerColour,
+            int    attacker,
+            int    captured,
+            int    fromSquareIndex,
+            int    toSquareIndex)
+    {
+        pieceZobrist = Zobrist.togglePiece(
+                Zobrist.toggleMove(pieceZobrist, attackerColour,
+                        attacker, fromSquareIndex, toSquareIndex),
+                attackerColour.invert(), captured, toSquareIndex);
+    }
 
 
     //--------------------------------------------------------------------
@@ -863,6 +1536,9 @@ public class State
         long to     = BitLoc.locationToBitBoard(  toSquareIndex);
         long fromTo = from ^ to;
 
+        toggleCaptureZobrist(nextToAct.invert(), attacker, captured,
+                fromSquareIndex, toSquareIndex);
+
         if (nextToAct == Colour.WHITE) {
             // black is the attacker
             bPieces[ attacker ] ^= fromTo;
@@ -879,9 +1555,7 @@ public class State
         }
 
         nextToAct       = nextToAct.invert();
-        castles         = prevCastles;
-        enPassant       = prevEnPassant;
-        reversibleMoves = prevReversibleMoves;
+        popUndo();
 
         nPieces++;
     }
@@ -906,27 +1580,27 @@ public class State
     private int addEnPassant(
             int from, int moves[], int nextOffset)
     {
-        if (nextToAct == Colour.BLACK) {
-            moves[nextOffset] = Move.enPassant(from,
-                    Location.squareIndex(EP_BLACK_DEST, enPassant));
-        } else {
-            moves[nextOffset] = Move.enPassant(from,
-                    Location.squareIndex(EP_WHITE_DEST, enPassant));
-        }
+        moves[nextOffset] = enPassantMove(from);
         return nextOffset + 1;
     }
 
+    private int enPassantMove(int from)
+    {
+        return Move.enPassant(from, Location.squareIndex(
+                (nextToAct == Colour.BLACK)
+                ? EP_BLACK_DEST : EP_WHITE_DEST,
+                enPassant));
+    }
+
     public void enPassantCapture(
             int from, int to, int captured)
     {
+        pushUndo();
         enPassantSwaps(from, to, captured);
 
         nextToAct           = nextToAct.invert();
-        prevEnPassant       = enPassant;
         enPassant           = EP_NONE;
-        prevReversibleMoves = reversibleMoves;
         reversibleMoves     = 0;
-        prevCastlePath      = castlePath;
         castlePath          = 0;
         nPieces--;
     }
@@ -934,9 +1608,7 @@ public class State
             int from, int to, int captured)
     {
         nextToAct       = nextToAct.invert();
-        enPassant       = prevEnPassant;
-        reversibleMoves = prevReversibleMoves;
-        castlePath      = prevCastlePath;
+        popUndo();
         nPieces++;
 
         enPassantSwaps(from, to, captured);
@@ -949,6 +1621,12 @@ public class State
         long capBB  = BitLoc.locationToBitBoard(captured);
 
         long fromToBB = fromBB ^ toBB;
+
+        pieceZobrist = Zobrist.togglePiece(
+                Zobrist.toggleMove(
+                        pieceZobrist, nextToAct, PAWNS, from, to),
+                nextToAct.invert(), PAWNS, captured);
+
         if (nextToAct == Colour.WHITE) {
             wPieces[ PAWNS ] ^= fromToBB;
             whiteBB          ^= fromToBB;
@@ -1042,49 +1720,34 @@ public class State
         }
     }
 
+    /**
+     * @param colour side
+     * @param figure kind of piece
+     * @return bitboard of those pieces, with bits by square index
+     */
+    public long pieces(Colour colour, Figure figure) {
+        return (colour == Colour.WHITE)
+               ? wPieces[ figure.ordinal() ]
+               : bPieces[ figure.ordinal() ];
+    }
+
 
     //--------------------------------------------------------------------
     public boolean isInCheck(Colour colour)
     {
-        long occupied    = whiteBB | blackBB;
-        long notOccupied = ~occupied;
-
-        long attacker, attacked, targetKing, attackingPieces[];
-        if (colour == Colour.BLACK) {
-            attacker        = whiteBB;
-            attacked        = blackBB;
-            targetKing      = bPieces[ KING ];
-            attackingPieces = wPieces;
-        } else {
-            attacker        = blackBB;
-            attacked        = whiteBB;
-            targetKing      = wPieces[ KING ];
-            attackingPieces = bPieces;
-        }
+        long   occupied = whiteBB | blackBB;
+        Colour attacker = colour.invert();
 
         if (colour != nextToAct && castlePath != 0) {
-            targetKing  = castlePath;
-            attacked   |= castlePath;
+            // just castled, so every square the king passed through
+            //  counts as being the king
+            return isAttacked(castlePath, occupied, attacker);
         }
 
-        long notAttacker = ~attacker;
-
-        Colour attackColour = colour.invert();
-        for (Figure f : Figure.VALUES)
-        {
-            Piece p  = Piece.valueOf(attackColour, f);
-            long  bb = attackingPieces[ f.ordinal() ];
-            while (bb != 0)
-            {
-                long pieceBoard  = BitBoard.lowestOneBit(bb);
-                long pseudoMoves = p.moves(
-                        pieceBoard, occupied, notOccupied,
-                        attacker, notAttacker, attacked);
-                if ((targetKing & pseudoMoves) != 0) return true;
-                bb &= bb - 1;
-            }
-        }
-        return false;
+        long king = (colour == Colour.WHITE)
+                    ? wPieces[ KING ] : bPieces[ KING ];
+        return attackers(BitLoc.bitBoardToLocation(king),
+                         occupied, attacker) != 0;
     }
 
     public Colour nextToAct()
@@ -1111,6 +1774,30 @@ public class State
         return reversibleMoves > 100;
     }
 
+    /**
+     * Dead positions by material alone: bare kings, a single knight or
+     *  bishop, or any number of bishops that are all on squares of the
+     *  same colour.  Neither side can ever mate from these, no matter
+     *  how either of them plays.
+     *
+     * @return true if neither side has the material to mate
+     */
+    public boolean isDrawnByInsufficientMaterial() {
+        if ((wPieces[ PAWNS ] | wPieces[ ROOKS ] | wPieces[ QUEENS ] |
+             bPieces[ PAWNS ] | bPieces[ ROOKS ] | bPieces[ QUEENS ])
+                != 0) {
+            return false;
+        }
+
+        long knights = wPieces[ KNIGHTS ] | bPieces[ KNIGHTS ];
+        long bishops = wPieces[ BISHOPS ] | bPieces[ BISHOPS ];
+        if (knights == 0) {
+            return (bishops &   LIGHT_SQUARES) == 0 ||
+                   (bishops & ~ LIGHT_SQUARES) == 0;
+        }
+        return bishops == 0 && (knights & (knights - 1)) == 0;
+    }
+
     public Outcome knownOutcome() {
         if (isDrawnBy50MovesRule()) return Outcome.DRAW;
 
@@ -1155,9 +1842,12 @@ public class State
 
     private int figureAt(long location, Colour ofColour)
     {
-        long[] pieces = (ofColour == Colour.WHITE)
-                        ? wPieces : bPieces;
-
+        return figureAt(location,
+                (ofColour == Colour.WHITE)
+                ? wPieces : bPieces);
+    }
+    private static int figureAt(long location, long[] pieces)
+    {
         for (int f = 0; f < Figure.VALUES.length; f++)
         {
             long occupied = pieces[ f ];
@@ -1179,14 +1869,45 @@ public class State
                          nPieces,
                          whiteBB,
                          blackBB,
-                         prevCastles,
-                         prevReversibleMoves,
-                         prevEnPassant,
                          castlePath,
-                         prevCastlePath
+                         Arrays.copyOf(undo, Math.max(
+                                 undoPly + 1, UNDO_INITIAL_PLIES)),
+                         undoPly,
+                         pieceZobrist
                );
     }
 
+    /**
+     * Turns this into a prototype of the given state without allocating
+     *  (unless the undo history of the given state doesn't fit).
+     *
+     * @param prototype state to copy
+     */
+    public void copyFrom(State prototype)
+    {
+        System.arraycopy(prototype.wPieces, 0,
+                         wPieces, 0, wPieces.length);
+        System.arraycopy(prototype.bPieces, 0,
+                         bPieces, 0, bPieces.length);
+
+        enPassant       = prototype.enPassant;
+        castles         = prototype.castles;
+        reversibleMoves = prototype.reversibleMoves;
+        nextToAct       = prototype.nextToAct;
+        nPieces         = prototype.nPieces;
+        whiteBB         = prototype.whiteBB;
+        blackBB         = prototype.blackBB;
+        castlePath      = prototype.castlePath;
+        pieceZobrist    = prototype.pieceZobrist;
+
+        if (undo.length <= prototype.undoPly) {
+            undo = new int[ prototype.undoPly + UNDO_INITIAL_PLIES ];
+        }
+        System.arraycopy(prototype.undo, 0,
+                         undo, 0, prototype.undoPly);
+        undoPly = prototype.undoPly;
+    }
+
 
     //--------------------------------------------------------------------
     public boolean checkPieces()
@@ -1348,17 +2069,47 @@ public class State
         return nextToActPostprocess(
                 zobristPiecesEnPassantCastles());
     }
+
+    /**
+     * Key for sharing search statistics between transpositions.  Like
+     *  staticHashCode it leaves out the reversible move clock, which
+     *  only splits positions that play out the same, except in the
+     *  last plies before a draw by the 50 move rule: from CLOCK_HORIZON
+     *  reversible moves on the clock is part of it, like longHashCode.
+     *
+     * @return hash of the position, without the clock unless it is
+     *          close to deciding the game
+     */
+    public long transpositionHashCode() {
+        return (reversibleMoves < CLOCK_HORIZON)
+               ? staticHashCode()
+               : longHashCode();
+    }
     private long zobristPiecesEnPassantCastles() {
-        long zobrist = 0;
+        assert checkZobrist() : "incremental zobrist out of sync";
 
-        zobrist = addZobristPieces(zobrist, Colour.WHITE);
-        zobrist = addZobristPieces(zobrist, Colour.BLACK);
+        long zobrist = pieceZobrist ^ CASTLES_ZOBRIST[ castles ];
 
         if (enPassant != EP_NONE) {
             zobrist = Zobrist.toggleEnPassant(zobrist, enPassant);
         }
 
-        return addZobristCastles(zobrist);
+        return zobrist;
+    }
+
+    /**
+     * Recomputes the zobrist of the pieces from scratch,
+     *  run with -ea to have every hash lookup do this.
+     *
+     * @return true if the incrementally updated zobrist is correct
+     */
+    public boolean checkZobrist() {
+        return pieceZobrist == zobristPieces();
+    }
+    private long zobristPieces() {
+        return addZobristPieces(
+                addZobristPieces(0, Colour.WHITE),
+                Colour.BLACK);
     }
     private long nextToActPostprocess(long zobrist) {
         return (nextToAct == Colour.WHITE && zobrist < 0 ||
@@ -1387,7 +2138,7 @@ public class State
         }
         return zobrist;
     }
-    private long addZobristCastles(long zobrist) {
+    private static long addZobristCastles(long zobrist, byte castles) {
         if ((castles & WHITE_K_CASTLE) != 0) {
             zobrist = Zobrist.toggleCastle(
                     zobrist, Colour.WHITE, CastleType.KING_SIDE);
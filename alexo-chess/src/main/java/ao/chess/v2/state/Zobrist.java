@@ -2,6 +2,7 @@ package ao.chess.v2.state;
 
 import ao.chess.v2.data.Location;
 import ao.chess.v2.piece.Colour;
+import ao.chess.v2.piece.Figure;
 import ao.chess.v2.piece.Piece;
 
 import java.util.Random;
@@ -71,6 +72,20 @@ public class Zobrist
                                [ locationIndex   ];
     }
 
+    public static long togglePiece(
+            long zobrist, Colour colour, int figure, int locationIndex) {
+        return togglePiece(zobrist,
+                Piece.valueOf(colour, Figure.VALUES[ figure ]),
+                locationIndex);
+    }
+
+    public static long toggleMove(
+            long zobrist, Colour colour, int figure, int from, int to) {
+        Piece piece = Piece.valueOf(colour, Figure.VALUES[ figure ]);
+        return zobrist ^ PIECES[ piece.ordinal() ][ from ]
+                       ^ PIECES[ piece.ordinal() ][ to   ];
+    }
+
     public static long toggleEnPassant(
             long zobrist, byte enPassantFile) {
         return zobrist ^ EN_PASSANTS[enPassantFile];
@@ -0,0 +1,121 @@
+package ao.chess.v2.test;
+
+import ao.chess.v2.engine.mcts.MctsHeuristic;
+import ao.chess.v2.engine.mcts.MctsNode;
+import ao.chess.v2.engine.mcts.MctsRollout;
+import ao.chess.v2.engine.mcts.TranspositionTable;
+import ao.chess.v2.engine.mcts.heuristic.MctsCaptureHeuristic;
+import ao.chess.v2.engine.mcts.node.MctsNodeImpl;
+import ao.chess.v2.engine.mcts.rollout.MctsRolloutImpl;
+import ao.chess.v2.engine.mcts.transposition.NullTransTable;
+import ao.chess.v2.engine.mcts.transposition.PackedTransTable;
+import ao.chess.v2.engine.mcts.value.Ucb1TunedValue;
+import ao.chess.v2.state.State;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that a trajectory through a warm MctsNodeImpl tree allocates
+ *  nothing besides the node it adds to the tree: the bytes allocated
+ *  by the searching thread, from the allocation counter of the JVM,
+ *  have to match the growth of the heap after garbage collection.
+ *  It is checked without a transposition table, and with a
+ *  PackedTransTable, which is probed for every child on every descent.
+ *
+ * Usage: AllocationCheck [trajectories per round] [rounds] [fen]
+ */
+public class AllocationCheck
+{
+    //--------------------------------------------------------------------
+    // average garbage per trajectory that's put down to measurement
+    private static final double TOLERANCE_BYTES = 1.0;
+
+    private static final Ucb1TunedValue.Factory VALUES =
+            new Ucb1TunedValue.Factory();
+
+    private static final int TABLE_MEGABYTES = 16;
+
+    private static final MctsRollout   ROLLOUT   =
+            new MctsRolloutImpl(true);
+
+    private static final MctsHeuristic HEURISTIC =
+            new MctsCaptureHeuristic();
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean();
+
+
+    //--------------------------------------------------------------------
+    public static void main(String[] args)
+    {
+        int    perRound = (args.length > 0)
+                          ? Integer.parseInt(args[0]) : 20 * 1000;
+        int    rounds   = (args.length > 1)
+                          ? Integer.parseInt(args[1]) : 5;
+        String fen      = (args.length > 2)
+                          ? args[2]
+                          : "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/" +
+                            "2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+        System.out.println("without a transposition table");
+        boolean passed = check(State.fromFen(fen), perRound, rounds,
+                new NullTransTable<Ucb1TunedValue>());
+
+        System.out.println("with a packed transposition table");
+        passed &= check(State.fromFen(fen), perRound, rounds,
+                new PackedTransTable<Ucb1TunedValue>(
+                        VALUES, TABLE_MEGABYTES));
+
+        System.out.println(passed
+                ? "passed"
+                : "failed: trajectories allocate more than their node");
+    }
+
+    private static boolean check(
+            State                              state,
+            int                                perRound,
+            int                                rounds,
+            TranspositionTable<Ucb1TunedValue> trans)
+    {
+        MctsNode<Ucb1TunedValue> root =
+                new MctsNodeImpl.Factory<Ucb1TunedValue>()
+                        .newNode(state, VALUES);
+
+        // the first round warms up the thread's buffers and the JIT
+        long    thread = Thread.currentThread().getId();
+        boolean passed = true;
+        for (int round = 0; round <= rounds; round++) {
+            long heapBefore  = usedHeap();
+            long allocBefore = THREADS.getThreadAllocatedBytes(thread);
+
+            for (int i = 0; i < perRound; i++) {
+                root.runTrajectory(
+                        state, VALUES, ROLLOUT, trans, HEURISTIC);
+            }
+
+            long allocated = THREADS.getThreadAllocatedBytes(thread)
+                             - allocBefore;
+            long retained  = usedHeap() - heapBefore;
+            if (round == 0) continue;
+
+            double garbage = (double) (allocated - retained) / perRound;
+            System.out.println("round " + round + ": " +
+                    allocated / perRound + " bytes allocated and " +
+                    retained  / perRound + " retained per trajectory");
+            passed &= (garbage <= TOLERANCE_BYTES);
+        }
+        return passed;
+    }
+
+
+    //--------------------------------------------------------------------
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,118 @@
+package ao.chess.v2.test;
+
+import ao.chess.v2.engine.mcts.MctsHeuristic;
+import ao.chess.v2.engine.mcts.MctsNode;
+import ao.chess.v2.engine.mcts.MctsRollout;
+import ao.chess.v2.engine.mcts.TranspositionTable;
+import ao.chess.v2.engine.mcts.heuristic.MctsCaptureHeuristic;
+import ao.chess.v2.engine.mcts.node.MctsArenaNode;
+import ao.chess.v2.engine.mcts.node.MctsNodeImpl;
+import ao.chess.v2.engine.mcts.rollout.MctsRolloutImpl;
+import ao.chess.v2.engine.mcts.transposition.NullTransTable;
+import ao.chess.v2.engine.mcts.value.Ucb1TunedValue;
+import ao.chess.v2.state.Move;
+import ao.chess.v2.state.State;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Searches the same position for the same wall time with MctsNodeImpl
+ *  and with MctsArenaNode, printing playouts, heap retained by the tree
+ *  and time spent in garbage collection during the search.
+ *
+ * Usage: ArenaBench [millis] [arena megabytes] [fen]
+ */
+public class ArenaBench
+{
+    //--------------------------------------------------------------------
+    private static final Ucb1TunedValue.Factory VALUES =
+            new Ucb1TunedValue.Factory();
+
+    private static final MctsRollout   ROLLOUT   =
+            new MctsRolloutImpl(true);
+
+    private static final MctsHeuristic HEURISTIC =
+            new MctsCaptureHeuristic();
+
+
+    //--------------------------------------------------------------------
+    public static void main(String[] args)
+    {
+        long   millis    = (args.length > 0)
+                           ? Long.parseLong(args[0]) : 10000;
+        int    megabytes = (args.length > 1)
+                           ? Integer.parseInt(args[1]) : 64;
+        String fen       = (args.length > 2)
+                           ? args[2]
+                           : "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/" +
+                             "2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+        MctsNode.Factory<Ucb1TunedValue> objects =
+                new MctsNodeImpl.Factory<Ucb1TunedValue>();
+        MctsNode.Factory<Ucb1TunedValue> arena   =
+                new MctsArenaNode.Factory<Ucb1TunedValue>(
+                        MctsArenaNode.UCB1_TUNED, megabytes);
+
+        // warm up both, so neither pays for compilation
+        search(objects, fen, millis / 5);
+        search(arena,   fen, millis / 5);
+
+        System.out.println("objects " + search(objects, fen, millis));
+        System.out.println("arena   " + search(arena,   fen, millis));
+    }
+
+
+    //--------------------------------------------------------------------
+    private static String search(
+            MctsNode.Factory<Ucb1TunedValue> nodes,
+            String                           fen,
+            long                             millis)
+    {
+        long heapBefore = usedHeap();
+        long gcBefore   = gcMillis();
+
+        State                              state = State.fromFen(fen);
+        MctsNode<Ucb1TunedValue>           root  =
+                nodes.newNode(state, VALUES);
+        TranspositionTable<Ucb1TunedValue> trans =
+                new NullTransTable<Ucb1TunedValue>();
+
+        long endAt = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < endAt) {
+            root.runTrajectory(state, VALUES, ROLLOUT, trans, HEURISTIC);
+        }
+
+        long gcTook   = gcMillis() - gcBefore;
+        long retained = usedHeap() - heapBefore;
+        int  playouts = root.value().visits();
+        int  move     = root.bestMove(
+                new Ucb1TunedValue.VisitSelector()).action();
+
+        return playouts + " playouts, " +
+                (retained >> 20) + " MB retained, " +
+                gcTook + " ms in gc, " +
+                Move.toString(move) + " | " + root;
+    }
+
+
+    //--------------------------------------------------------------------
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcMillis()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean gc :
+                ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(gc.getCollectionTime(), 0);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,165 @@
+package ao.chess.v2.test;
+
+import ao.chess.v2.data.FastRandom;
+import ao.chess.v2.engine.mcts.MctsHeuristic;
+import ao.chess.v2.engine.mcts.MctsNode;
+import ao.chess.v2.engine.mcts.MctsRollout;
+import ao.chess.v2.engine.mcts.MctsValue;
+import ao.chess.v2.engine.mcts.TranspositionTable;
+import ao.chess.v2.engine.mcts.node.MctsNodeImpl;
+import ao.chess.v2.engine.mcts.rollout.MctsEvalRollout;
+import ao.chess.v2.engine.mcts.transposition.NullTransTable;
+import ao.chess.v2.engine.mcts.value.Ucb1TunedValue;
+import ao.chess.v2.engine.mcts.value.Ucb1Value;
+import ao.chess.v2.engine.mcts.value.Ucb1Value2;
+import ao.chess.v2.engine.mcts.value.UcbTuned2Value;
+import ao.chess.v2.engine.mcts.value.UcbTunedValue;
+import ao.chess.v2.engine.mcts.value.Ucbt2Value;
+import ao.chess.v2.state.Move;
+import ao.chess.v2.state.State;
+
+/**
+ * Checks that MctsNodeImpl picks the same child with its bandit index
+ *  as by scoring every child, for each value class: two trees are
+ *  searched in lock step from the same random seeds, one of them with
+ *  a transposition table that claims to track positions, which makes
+ *  it score every child, and then compared node by node.  Needs
+ *  re-running whenever a confidence bound changes.
+ *
+ * Usage: BanditIndexCheck [trajectories per round] [rounds] [fen]
+ */
+public class BanditIndexCheck
+{
+    //--------------------------------------------------------------------
+    private static final MctsRollout   ROLLOUT   = new MctsEvalRollout();
+
+    // unlike the heuristics of the engine, draws no random numbers,
+    //  the two trees don't make the same number of calls to it
+    private static final MctsHeuristic HEURISTIC = new MctsHeuristic() {
+        @Override public double firstPlayUrgency(int move) {
+            return Move.isCapture(move) ? 1.5 : 1.0;
+        }
+
+        @Override public int[] orderMoves(
+                State fromState, int[] moves, int nMoves) {
+            return null;
+        }
+    };
+
+
+    //--------------------------------------------------------------------
+    public static void main(String[] args)
+    {
+        int    perRound = (args.length > 0)
+                          ? Integer.parseInt(args[0]) : 20 * 1000;
+        int    rounds   = (args.length > 1)
+                          ? Integer.parseInt(args[1]) : 5;
+        String fen      = (args.length > 2)
+                          ? args[2]
+                          : "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/" +
+                            "2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+        boolean passed = check("Ucb1TunedValue", fen, perRound, rounds,
+                new Ucb1TunedValue.Factory());
+        passed &= check("Ucb1Value", fen, perRound, rounds,
+                new Ucb1Value.Factory());
+        passed &= check("UcbTunedValue", fen, perRound, rounds,
+                new UcbTunedValue.Factory());
+        passed &= check("UcbTuned2Value", fen, perRound, rounds,
+                new UcbTuned2Value.Factory());
+        passed &= check("Ucbt2Value", fen, perRound, rounds,
+                new Ucbt2Value.Factory());
+        passed &= check("Ucb1Value2", fen, perRound, rounds,
+                new Ucb1Value2.Factory());
+
+        System.out.println(passed
+                ? "passed"
+                : "failed: the bandit index picked a different child");
+    }
+
+    private static <V extends MctsValue<V>> boolean check(
+            String               name,
+            String               fen,
+            int                  perRound,
+            int                  rounds,
+            MctsValue.Factory<V> values)
+    {
+        State state = State.fromFen(fen);
+
+        MctsNode<V> indexed = new MctsNodeImpl.Factory<V>()
+                .newNode(state, values);
+        MctsNode<V> scanned = new MctsNodeImpl.Factory<V>()
+                .newNode(state, values);
+
+        TranspositionTable<V> none     = new NullTransTable<V>();
+        TranspositionTable<V> tracking = new TrackingTable<V>();
+
+        int trajectory = 0;
+        for (int round = 1; round <= rounds; round++) {
+            for (int i = 0; i < perRound; i++, trajectory++) {
+                FastRandom.seed(trajectory);
+                indexed.runTrajectory(
+                        state, values, ROLLOUT, none, HEURISTIC);
+
+                FastRandom.seed(trajectory);
+                scanned.runTrajectory(
+                        state, values, ROLLOUT, tracking, HEURISTIC);
+            }
+
+            int[] count = new int[2];
+            compare(indexed, scanned, state, count);
+
+            boolean match = (count[1] == 0);
+            System.out.println(
+                    (match ? "OK   " : "FAIL ") + name + " round " +
+                    round + ": " + count[1] + " of " + count[0] +
+                    " nodes differ after " + trajectory + " trajectories");
+            if (! match) return false;
+        }
+        return true;
+    }
+
+
+    //--------------------------------------------------------------------
+    // count[0] nodes compared, count[1] of which differ
+    private static <V extends MctsValue<V>> void compare(
+            MctsNode<V> a, MctsNode<V> b, State state, int[] count)
+    {
+        count[0]++;
+        if (a.value().packedStats() != b.value().packedStats()) {
+            count[1]++;
+            return;
+        }
+
+        int[] moves  = new int[ Move.MAX_PER_PLY ];
+        int   nMoves = state.legalMoves(moves);
+        for (int i = 0; i < nMoves; i++) {
+            MctsNode<V> kidA = a.childMatching(moves[i]);
+            MctsNode<V> kidB = b.childMatching(moves[i]);
+            if (kidA == null || kidB == null) {
+                if (kidA != kidB) {
+                    count[1]++;
+                }
+                continue;
+            }
+
+            Move.apply(moves[i], state);
+            compare(kidA, kidB, state, count);
+            Move.unApply(moves[i], state);
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Stores nothing, so every child is scored as without a table.
+     */
+    private static class TrackingTable<V extends MctsValue<V>>
+            extends NullTransTable<V>
+    {
+        @Override
+        public boolean isTracking() {
+            return true;
+        }
+    }
+}
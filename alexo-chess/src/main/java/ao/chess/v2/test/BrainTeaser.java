@@ -90,7 +90,7 @@ public class BrainTeaser {
         Player player = new MctsPlayer(
                 new MctsNodeImpl.Factory<Ucb1TunedValue>(),
                 new Ucb1TunedValue.Factory(),
-                new MctsRolloutImpl(false),
+                new MctsRolloutImpl(true),
                 new Ucb1TunedValue.VisitSelector(),
                 new MctsCaptureHeuristic(),
                 new NullTransTable<Ucb1TunedValue>(),
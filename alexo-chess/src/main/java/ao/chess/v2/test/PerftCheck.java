@@ -0,0 +1,251 @@
+package ao.chess.v2.test;
+
+import ao.chess.v2.engine.mcts.MctsNode;
+import ao.chess.v2.engine.mcts.heuristic.MctsHeuristicImpl;
+import ao.chess.v2.engine.mcts.node.MctsWideningNode;
+import ao.chess.v2.engine.mcts.rollout.MctsRolloutImpl;
+import ao.chess.v2.engine.mcts.transposition.NullTransTable;
+import ao.chess.v2.engine.mcts.value.Ucb1TunedValue;
+import ao.chess.v2.move.MagicAttacks;
+import ao.chess.v2.state.Move;
+import ao.chess.v2.state.State;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Cross-checks the move generator against published perft node counts,
+ *  the magic slider attacks against the plain ray walker, the
+ *  incrementally updated zobrist against a full recompute, deep undo
+ *  against the position it started from, and the move sampler and
+ *  its legality check against the move generator.  Also checks that a
+ *  fully widened MctsWideningNode, which checks legality lazily, ends
+ *  up with exactly the legal moves.
+ *
+ * See http://chessprogramming.wikispaces.com/Perft+Results
+ */
+public class PerftCheck
+{
+    //--------------------------------------------------------------------
+    private static final String[] FENS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R" +
+                    " w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1" +
+                    " w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8"
+    };
+
+    private static final int[]  DEPTHS = {4, 3, 5, 4, 3};
+
+    private static final long[] NODES  = {
+            197281, 97862, 674624, 422333, 62379};
+
+
+    //--------------------------------------------------------------------
+    public static void main(String[] args)
+    {
+        boolean ok = checkAttacks(100000);
+        ok &= checkSampleFrequency(FENS[1], 480000);
+
+        for (int i = 0; i < FENS.length; i++) {
+            long before = System.currentTimeMillis();
+            long nodes  = perft(State.fromFen(FENS[i]), DEPTHS[i]);
+            long took   = System.currentTimeMillis() - before;
+
+            boolean match = (nodes == NODES[i]);
+            ok &= match;
+
+            System.out.println(
+                    (match ? "OK   " : "FAIL ") +
+                    "perft(" + DEPTHS[i] + ") = " + nodes +
+                    " (expected " + NODES[i] + ") took " + took +
+                    " | " + FENS[i]);
+        }
+
+        for (int i = 0; i < FENS.length; i++) {
+            long nodes = checkSampler(
+                    State.fromFen(FENS[i]), DEPTHS[i], new Random(i));
+            System.out.println("OK   sampled in " + nodes +
+                    " positions | " + FENS[i]);
+        }
+
+        for (String fen : FENS) {
+            ok &= checkWidening(fen);
+        }
+
+        System.out.println(ok ? "all passed" : "FAILED");
+    }
+
+
+    //--------------------------------------------------------------------
+    private static boolean checkAttacks(int trials)
+    {
+        Random rand = new Random(420);
+        for (int i = 0; i < trials; i++) {
+            int  loc      = rand.nextInt(64);
+            long occupied = rand.nextLong() & rand.nextLong();
+
+            if (MagicAttacks.rookAttacks(loc, occupied) !=
+                    MagicAttacks.rookRayAttacks(loc, occupied) ||
+                MagicAttacks.bishopAttacks(loc, occupied) !=
+                    MagicAttacks.bishopRayAttacks(loc, occupied)) {
+                System.out.println("FAIL attacks from " + loc +
+                        " with " + Long.toHexString(occupied));
+                return false;
+            }
+        }
+        System.out.println("OK   " + trials + " random slider attacks");
+        return true;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Opens every move at once, then runs a trajectory per move: the
+     *  first play urgency of MctsHeuristicImpl is high enough for each
+     *  open move to be tried before any is tried twice.
+     */
+    private static boolean checkWidening(String fen)
+    {
+        State state = State.fromFen(fen);
+
+        Ucb1TunedValue.Factory values = new Ucb1TunedValue.Factory();
+        MctsNode<Ucb1TunedValue> node =
+                new MctsWideningNode.Factory<Ucb1TunedValue>(
+                        new MctsHeuristicImpl(), Move.MAX_PER_PLY, 0)
+                        .newNode(state, values);
+
+        int[] moves  = new int[ Move.MAX_PER_PLY ];
+        int   nMoves = state.moves(moves);
+        for (int i = 0; i <= nMoves; i++) {
+            node.runTrajectory(state, values, new MctsRolloutImpl(true),
+                    new NullTransTable<Ucb1TunedValue>(),
+                    new MctsHeuristicImpl());
+        }
+
+        int[] legal = state.legalMoves();
+        Arrays.sort(legal);
+
+        for (int i = 0; i < nMoves; i++) {
+            boolean isLegal = (Arrays.binarySearch(legal, moves[i]) >= 0);
+            if (isLegal != (node.childMatching(moves[i]) != null)) {
+                System.out.println("FAIL widening " + (isLegal
+                        ? "missed legal " : "opened illegal ") +
+                        Move.toString(moves[i]) + " | " + fen);
+                return false;
+            }
+        }
+        System.out.println("OK   widened to " + legal.length +
+                " legal of " + nMoves + " moves | " + fen);
+        return true;
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Applies and undoes every move in place on the given state, so
+     *  also checks that arbitrarily deep undo restores it exactly.
+     */
+    public static long perft(State state, int depth)
+    {
+        int[] moves  = new int[ Move.MAX_PER_PLY ];
+        int   nMoves = state.legalMoves(moves);
+        if (nMoves <= 0 || depth == 1) {
+            return Math.max(nMoves, 0);
+        }
+
+        State before = state.prototype();
+
+        long nodes = 0;
+        for (int i = 0; i < nMoves; i++) {
+            Move.apply(moves[i], state);
+            check(state.checkZobrist(), "zobrist", state, moves[i]);
+
+            nodes += perft(state, depth - 1);
+
+            Move.unApply(moves[i], state);
+            check(state.checkZobrist(), "zobrist", state, moves[i]);
+            check(state.equals(before), "undo", state, moves[i]);
+        }
+        return nodes;
+    }
+
+    private static void check(
+            boolean ok, String what, State state, int move)
+    {
+        if (! ok) {
+            throw new Error(what + " out of sync after " +
+                    Move.toString(move) + " in " + state.toFen());
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    /**
+     * Every sampled move must be generated by moves(int[]), and
+     *  isLegalMove must agree with applying the move and checking
+     *  whether the king can be captured.
+     */
+    public static long checkSampler(State state, int depth, Random rand)
+    {
+        int[] moves  = new int[ Move.MAX_PER_PLY ];
+        int[] next   = new int[ Move.MAX_PER_PLY ];
+        int   nMoves = state.moves(moves);
+
+        for (int i = 0; i < 4; i++) {
+            int sample = state.sampleMove(rand);
+            check(indexOf(sample, moves, nMoves) != -1,
+                    "sample not generated", state, sample);
+        }
+
+        long nodes = 1;
+        for (int i = 0; i < nMoves; i++) {
+            boolean legal = state.isLegalMove(moves[i]);
+
+            int undoable = Move.apply(moves[i], state);
+            check(legal == (state.moves(next) >= 0),
+                    "legality", state, moves[i]);
+
+            if (legal && depth > 1) {
+                nodes += checkSampler(state, depth - 1, rand);
+            }
+            Move.unApply(undoable, state);
+        }
+        return nodes;
+    }
+
+    private static boolean checkSampleFrequency(String fen, int trials)
+    {
+        State state  = State.fromFen(fen);
+        int[] moves  = new int[ Move.MAX_PER_PLY ];
+        int   nMoves = state.moves(moves);
+
+        int[]  counts = new int[ nMoves ];
+        Random rand   = new Random(420);
+        for (int i = 0; i < trials; i++) {
+            counts[ indexOf(state.sampleMove(rand), moves, nMoves) ]++;
+        }
+
+        double expected = (double) trials / nMoves;
+        for (int i = 0; i < nMoves; i++) {
+            if (Math.abs(counts[i] - expected) > 5 * Math.sqrt(expected)) {
+                System.out.println("FAIL sampled " + Move.toString(moves[i]) +
+                        " " + counts[i] + " times, expected " + expected);
+                return false;
+            }
+        }
+        System.out.println("OK   " + trials + " samples uniform over " +
+                nMoves + " moves");
+        return true;
+    }
+
+    private static int indexOf(int move, int[] moves, int nMoves)
+    {
+        for (int i = 0; i < nMoves; i++) {
+            if (moves[i] == move) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,151 @@
+package ao.chess.v2.test;
+
+import ao.chess.v2.engine.mcts.MctsHeuristic;
+import ao.chess.v2.engine.mcts.MctsNode;
+import ao.chess.v2.engine.mcts.MctsRollout;
+import ao.chess.v2.engine.mcts.TranspositionTable;
+import ao.chess.v2.engine.mcts.heuristic.MctsCaptureHeuristic;
+import ao.chess.v2.engine.mcts.node.MctsNodeImpl;
+import ao.chess.v2.engine.mcts.player.MctsRootParallelPlayer;
+import ao.chess.v2.engine.mcts.rollout.MctsRolloutImpl;
+import ao.chess.v2.engine.mcts.transposition.NullTransTable;
+import ao.chess.v2.engine.mcts.value.Ucb1TunedValue;
+import ao.chess.v2.state.Move;
+import ao.chess.v2.state.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches each position for the same wall time with one MctsNodeImpl
+ *  tree on one thread, and with K independent trees on K threads
+ *  merged at the root the way MctsRootParallelPlayer does it.
+ *
+ * Usage: RootParallelBench [trees] [millis per position]
+ */
+public class RootParallelBench
+{
+    //--------------------------------------------------------------------
+    private static final String[] FENS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R" +
+                    " w KQkq - 0 1",
+            "r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR" +
+                    " w KQkq - 4 4",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"
+    };
+
+    private static final Ucb1TunedValue.Factory VALUES =
+            new Ucb1TunedValue.Factory();
+
+    private static final MctsNodeImpl.Factory<Ucb1TunedValue> NODES =
+            new MctsNodeImpl.Factory<Ucb1TunedValue>();
+
+    private static final MctsRollout   ROLLOUT   =
+            new MctsRolloutImpl(true);
+
+    private static final MctsHeuristic HEURISTIC =
+            new MctsCaptureHeuristic();
+
+
+    //--------------------------------------------------------------------
+    public static void main(String[] args) throws Exception
+    {
+        int  trees  = (args.length > 0)
+                      ? Integer.parseInt(args[0])
+                      : Runtime.getRuntime().availableProcessors();
+        long millis = (args.length > 1)
+                      ? Long.parseLong(args[1])
+                      : 5000;
+
+        ExecutorService exec = Executors.newFixedThreadPool(trees);
+        try {
+            for (String fen : FENS) {
+                // warm up once, so the first position isn't penalized
+                if (fen == FENS[0]) search(exec, fen, 1, millis);
+
+                Result single   = search(exec, fen, 1,     millis);
+                Result parallel = search(exec, fen, trees, millis);
+
+                System.out.println(fen);
+                System.out.println("  1 tree   " + single);
+                System.out.println("  " + trees + " trees  " + parallel +
+                        " | x" + Math.round(100.0 * parallel.playouts /
+                                single.playouts) / 100.0);
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+
+    //--------------------------------------------------------------------
+    @SuppressWarnings("unchecked")
+    private static Result search(
+            ExecutorService exec,
+            String          fen,
+            int             trees,
+            final long      millis) throws Exception
+    {
+        final long endAt = System.currentTimeMillis() + millis;
+
+        MctsNode<Ucb1TunedValue>[] roots = new MctsNode[ trees ];
+        List<Future<Void>>        searches =
+                new ArrayList<Future<Void>>();
+        for (int i = 0; i < trees; i++) {
+            final State treeState = State.fromFen(fen);
+            final MctsNode<Ucb1TunedValue> root =
+                    NODES.newNode(treeState, VALUES);
+            roots[ i ] = root;
+
+            searches.add(exec.submit(new Callable<Void>() {
+                @Override public Void call() {
+                    TranspositionTable<Ucb1TunedValue> transTable =
+                            new NullTransTable<Ucb1TunedValue>();
+                    while (System.currentTimeMillis() < endAt) {
+                        root.runTrajectory(treeState, VALUES,
+                                ROLLOUT, transTable, HEURISTIC);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> search : searches) {
+            search.get();
+        }
+
+        long playouts = 0;
+        for (MctsNode<Ucb1TunedValue> root : roots) {
+            playouts += root.value().visits();
+        }
+        int move = MctsRootParallelPlayer.mergedAction(
+                roots, State.fromFen(fen), VALUES,
+                new Ucb1TunedValue.VisitSelector());
+        return new Result(playouts, millis, move);
+    }
+
+
+    //--------------------------------------------------------------------
+    private static class Result
+    {
+        public final long playouts;
+        public final long millis;
+        public final int  move;
+
+        public Result(long playouts, long millis, int move) {
+            this.playouts = playouts;
+            this.millis   = millis;
+            this.move     = move;
+        }
+
+        @Override public String toString() {
+            return playouts + " playouts, " +
+                    (playouts * 1000 / millis) + " per second, " +
+                    Move.toString(move);
+        }
+    }
+}